@@ -67,10 +67,21 @@ public abstract class Command implements Serializable {
   public AclMessage getMessage() {
     if (!msg.isValid()) {
       msg = getAclMessage();
+      msg.getUuid();
     }
     return msg;
   }
 
+  /**
+   * Return true if the receiver answers this command with a reply which
+   * should be sent back to the client.
+   *
+   * @return true if this command expects a reply.
+   */
+  public boolean expectsReply() {
+    return false;
+  }
+
   /**
    * @return the sender
    */
@@ -95,10 +106,7 @@ public abstract class Command implements Serializable {
    * @return the commandId
    */
   public UUID getCommandId() {
-    if (!msg.isValid()) {
-      msg = getAclMessage();
-    }
-    return msg.getUuid();
+    return getMessage().getUuid();
   }
   
   @Override
@@ -8,5 +8,7 @@ public enum CommandType {
   PID_START,
   SHUTDOWN,
   SEND_DATA,
+  TIMING,
+  LATENCY,
   EMPTY;
 }
@@ -30,6 +30,10 @@ public class CommandUtils {
         return new PidStartCommand(args[0]);
       case SHUTDOWN:
         return new ShutdownCommand();
+      case TIMING:
+        return new TimingCommand();
+      case LATENCY:
+        return new LatencyCommand(args == null ? "" : args[0]);
       default:
         break;
     }
@@ -42,4 +42,9 @@ public class GetDataCommand extends Command {
     return msg;
   }
 
+  @Override
+  public boolean expectsReply() {
+    return true;
+  }
+
 }
@@ -0,0 +1,60 @@
+package com.onyx.common.commands;
+
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.AclPriority;
+import com.onyx.common.messaging.ActionId;
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.common.messaging.MessageType;
+
+/**
+ * Request the blackboard message latency statistics, optionally enabling,
+ * disabling or resetting message tracing first.
+ * @author fred
+ *
+ */
+public class LatencyCommand extends Command {
+
+  /**
+   * Generated SUID.
+   */
+  private static final long serialVersionUID = -2967301448917734215L;
+
+  /**
+   * Tracing option, enable, disable, reset or empty.
+   */
+  private final String option;
+
+  /**
+   * Create a new latency command.
+   *
+   * @param option enable, disable or reset, empty to only query.
+   */
+  public LatencyCommand(final String option) {
+    super(CommandType.LATENCY, DeviceId.COMM_CLIENT);
+    this.option = option;
+  }
+
+  /**
+   * Create a new latency query.
+   */
+  public LatencyCommand() {
+    this("");
+  }
+
+  @Override
+  public AclMessage getAclMessage() {
+    final AclMessage msg = new AclMessage(MessageType.SEND);
+    msg.setActionId(ActionId.GET_LATENCY);
+    msg.setContent(option);
+    msg.setSender(getSender());
+    msg.setReciever(DeviceId.CONTROLLER);
+    msg.setPriority(AclPriority.MEDIUM);
+    return msg;
+  }
+
+  @Override
+  public boolean expectsReply() {
+    return true;
+  }
+
+}
@@ -33,6 +33,8 @@ public class PidControlCommand extends Command {
     msg.setContent(yaw + ","
                + pitch + ","
                +  roll + "," + throttle);
+    msg.setVector(Double.parseDouble(yaw), Double.parseDouble(pitch),
+        Double.parseDouble(roll), Double.parseDouble(throttle));
     msg.setPriority(AclPriority.HIGH);
     msg.setReciever(DeviceId.PID);
     msg.setSender(getSender());
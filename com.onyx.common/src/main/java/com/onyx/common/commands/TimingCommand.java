@@ -0,0 +1,43 @@
+package com.onyx.common.commands;
+
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.AclPriority;
+import com.onyx.common.messaging.ActionId;
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.common.messaging.MessageType;
+
+/**
+ * Request the control loop timing statistics.
+ * @author fred
+ *
+ */
+public class TimingCommand extends Command {
+
+  /**
+   * Generated SUID.
+   */
+  private static final long serialVersionUID = 6170263185921137590L;
+
+  /**
+   * Create a new timing command.
+   */
+  public TimingCommand() {
+    super(CommandType.TIMING, DeviceId.COMM_CLIENT);
+  }
+
+  @Override
+  public AclMessage getAclMessage() {
+    final AclMessage msg = new AclMessage(MessageType.SEND);
+    msg.setActionId(ActionId.GET_TIMING);
+    msg.setSender(getSender());
+    msg.setReciever(DeviceId.CONTROLLER);
+    msg.setPriority(AclPriority.MEDIUM);
+    return msg;
+  }
+
+  @Override
+  public boolean expectsReply() {
+    return true;
+  }
+
+}
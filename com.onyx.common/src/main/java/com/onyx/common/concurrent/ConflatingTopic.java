@@ -0,0 +1,244 @@
+package com.onyx.common.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Latest value topic for high rate sample streams.</p>
+ * <p>A topic holds a single sample of up to {@link #getWidth()} doubles with
+ * a timestamp. Publishing overwrites the previous sample, so a slow reader
+ * never works through a backlog of stale samples, it reads the newest one at
+ * a constant cost. The topic is a sequence lock, publishers make the sequence
+ * odd while writing and readers retry if the sequence changed while they
+ * copied the sample. Neither side allocates or takes a monitor.</p>
+ *
+ * @author fred
+ *
+ */
+public final class ConflatingTopic {
+
+  /**
+   * Sequence lock, odd while a sample is being written.
+   */
+  private final AtomicLong sequence = new AtomicLong();
+
+  /**
+   * Raw bits of the sample values.
+   */
+  private final AtomicLongArray values;
+
+  /**
+   * Number of values in the sample.
+   */
+  private volatile int length;
+
+  /**
+   * Timestamp of the sample in nanoseconds.
+   */
+  private volatile long timestamp;
+
+  /**
+   * Create a new topic.
+   *
+   * @param width the maximum number of values in a sample.
+   */
+  public ConflatingTopic(final int width) {
+    if (width <= 0) {
+      throw new IllegalArgumentException("Invalid topic width: " + width);
+    }
+    values = new AtomicLongArray(width);
+  }
+
+  /**
+   * Claim the sequence lock for writing.
+   *
+   * @return the sequence before the write.
+   */
+  private long beginWrite() {
+    while (true) {
+      final long s = sequence.get();
+      if ((s & 1) == 0 && sequence.compareAndSet(s, s + 1)) {
+        return s;
+      }
+    }
+  }
+
+  /**
+   * Publish a three value sample.
+   *
+   * @param x the first value.
+   * @param y the second value.
+   * @param z the third value.
+   * @param timestampNanos the time the sample was taken.
+   */
+  public void publish(final double x, final double y, final double z, final long timestampNanos) {
+    final long s = beginWrite();
+    values.lazySet(0, Double.doubleToRawLongBits(x));
+    values.lazySet(1, Double.doubleToRawLongBits(y));
+    values.lazySet(2, Double.doubleToRawLongBits(z));
+    length = 3;
+    timestamp = timestampNanos;
+    sequence.set(s + 2);
+  }
+
+  /**
+   * Publish a sample.
+   *
+   * @param sample the sample values.
+   * @param count the number of values to publish.
+   * @param timestampNanos the time the sample was taken.
+   */
+  public void publish(final double[] sample, final int count, final long timestampNanos) {
+    if (count > values.length()) {
+      throw new IllegalArgumentException("Sample of " + count + " exceeds topic width.");
+    }
+    final long s = beginWrite();
+    for (int i = 0; i < count; i++) {
+      values.lazySet(i, Double.doubleToRawLongBits(sample[i]));
+    }
+    length = count;
+    timestamp = timestampNanos;
+    sequence.set(s + 2);
+  }
+
+  /**
+   * Copy the latest sample.
+   *
+   * @param sample the sample to copy into.
+   * @return false if nothing has been published.
+   */
+  public boolean read(final Sample sample) {
+    while (true) {
+      final long s = sequence.get();
+      if (s == 0) {
+        return false;
+      }
+      if ((s & 1) != 0) {
+        continue;
+      }
+      final int n = Math.min(length, sample.values.length);
+      for (int i = 0; i < n; i++) {
+        sample.values[i] = Double.longBitsToDouble(values.get(i));
+      }
+      final long ts = timestamp;
+      if (sequence.get() == s) {
+        sample.length = n;
+        sample.timestamp = ts;
+        sample.sequence = s >>> 1;
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Copy the latest sample if it is newer than the one held by sample.
+   *
+   * @param sample the sample to copy into.
+   * @return true if sample was updated.
+   */
+  public boolean readIfNewer(final Sample sample) {
+    return getSequence() > sample.sequence && read(sample);
+  }
+
+  /**
+   * Get the number of samples published to this topic.
+   *
+   * @return the sequence number of the latest sample, 0 if none.
+   */
+  public long getSequence() {
+    return sequence.get() >>> 1;
+  }
+
+  /**
+   * Get the maximum number of values in a sample.
+   *
+   * @return the width of this topic.
+   */
+  public int getWidth() {
+    return values.length();
+  }
+
+  /**
+   * A reader owned copy of a topic sample.
+   */
+  public static final class Sample {
+
+    /**
+     * The sample values.
+     */
+    private final double[] values;
+
+    /**
+     * Number of values read.
+     */
+    private int length;
+
+    /**
+     * Sequence number of the sample, 0 if none has been read.
+     */
+    private long sequence;
+
+    /**
+     * Time the sample was taken in nanoseconds.
+     */
+    private long timestamp;
+
+    /**
+     * Create a new sample.
+     *
+     * @param width the maximum number of values to read.
+     */
+    public Sample(final int width) {
+      values = new double[width];
+    }
+
+    /**
+     * Get a value of this sample.
+     *
+     * @param index the value index.
+     * @return the value.
+     */
+    public double get(final int index) {
+      return values[index];
+    }
+
+    /**
+     * Copy the values of this sample into an array.
+     *
+     * @param dest the array to copy into.
+     * @return the number of values copied.
+     */
+    public int get(final double[] dest) {
+      final int n = Math.min(dest.length, length);
+      System.arraycopy(values, 0, dest, 0, n);
+      return n;
+    }
+
+    /**
+     * Get the number of values in this sample.
+     *
+     * @return the number of values.
+     */
+    public int getLength() {
+      return length;
+    }
+
+    /**
+     * Get the sequence number of this sample.
+     *
+     * @return the sequence number, 0 if nothing has been read.
+     */
+    public long getSequence() {
+      return sequence;
+    }
+
+    /**
+     * Get the time this sample was taken.
+     *
+     * @return the timestamp in nanoseconds.
+     */
+    public long getTimestamp() {
+      return timestamp;
+    }
+  }
+}
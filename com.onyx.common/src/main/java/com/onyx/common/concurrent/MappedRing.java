@@ -0,0 +1,403 @@
+package com.onyx.common.concurrent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>Single writer broadcast ring in a memory mapped file.</p>
+ * <p>The ring lets processes on the same machine exchange records without
+ * system calls or locks. The file starts with a header holding the slot
+ * count, the slot size and the number of committed records, followed by
+ * the slots. Each slot carries the sequence number of the record it holds,
+ * which is cleared while the slot is being written.</p>
+ * <p>One process writes, any number of processes read, each reader keeping
+ * its own position. The writer never waits for readers. A reader which
+ * falls more than a ring behind skips to the oldest record still held and
+ * counts the records it lost, and a reader copies each record before
+ * checking the slot sequence again so it never returns a torn record.
+ * Memory mapped files have no volatile accessors in Java 8, so ordering is
+ * enforced with explicit load and store fences, looked up reflectively from
+ * sun.misc.Unsafe so the class also compiles with --release 8.</p>
+ * <p>A ring instance is used by a single thread.</p>
+ *
+ * @author fred
+ *
+ */
+public final class MappedRing {
+
+  /**
+   * Identifies a ring file.
+   */
+  private static final int MAGIC = 0x4f4e5952;
+
+  /**
+   * Size of the file header, one cache line.
+   */
+  private static final int HEADER = 64;
+
+  /**
+   * Offset of the slot count in the header.
+   */
+  private static final int SLOTS_OFFSET = 4;
+
+  /**
+   * Offset of the slot size in the header.
+   */
+  private static final int SLOT_SIZE_OFFSET = 8;
+
+  /**
+   * Offset of the number of committed records in the header.
+   */
+  private static final int COMMITTED_OFFSET = 16;
+
+  /**
+   * Size of the slot header, sequence and record length.
+   */
+  private static final int SLOT_HEADER = 12;
+
+  /**
+   * Sequence of a slot being written.
+   */
+  private static final long WRITING = -1L;
+
+  /**
+   * The load fence of sun.misc.Unsafe, null if it is not available.
+   */
+  private static final MethodHandle LOAD_FENCE;
+
+  /**
+   * The store fence of sun.misc.Unsafe, null if it is not available.
+   */
+  private static final MethodHandle STORE_FENCE;
+
+  /**
+   * Read and written in place of the fences when Unsafe is not available, a
+   * volatile read followed by a volatile write orders both ways.
+   */
+  private static volatile int fence;
+
+  static {
+    MethodHandle load = null;
+    MethodHandle store = null;
+    try {
+      final Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+      final Field f = unsafe.getDeclaredField("theUnsafe");
+      f.setAccessible(true);
+      final Object instance = f.get(null);
+      final MethodType type = MethodType.methodType(void.class);
+      load = MethodHandles.lookup().findVirtual(unsafe, "loadFence", type).bindTo(instance);
+      store = MethodHandles.lookup().findVirtual(unsafe, "storeFence", type).bindTo(instance);
+    } catch (ReflectiveOperationException | RuntimeException e1) {
+      load = null;
+      store = null;
+    }
+    LOAD_FENCE = load;
+    STORE_FENCE = store;
+  }
+
+  /**
+   * The mapped file.
+   */
+  private final MappedByteBuffer buffer;
+
+  /**
+   * View of a record, positioned on the record being written or read.
+   */
+  private final ByteBuffer record;
+
+  /**
+   * Number of slots, a power of two.
+   */
+  private final int slots;
+
+  /**
+   * Size of a slot in bytes.
+   */
+  private final int slotSize;
+
+  /**
+   * Sequence of the next record to write or read.
+   */
+  private long next;
+
+  /**
+   * Offset of the slot being written, -1 if none.
+   */
+  private int claimed = -1;
+
+  /**
+   * Number of records a reader skipped because it was overrun.
+   */
+  private long lost;
+
+  /**
+   * Map a ring file. The header is checked against the size of the file, so
+   * a truncated or foreign file is rejected rather than read out of bounds.
+   *
+   * @param buffer the mapped file.
+   * @throws IllegalArgumentException if the file is not a valid ring.
+   */
+  private MappedRing(final MappedByteBuffer buffer) {
+    if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC) {
+      throw new IllegalArgumentException("Not a ring file.");
+    }
+    this.buffer = buffer;
+    slots = buffer.getInt(SLOTS_OFFSET);
+    slotSize = buffer.getInt(SLOT_SIZE_OFFSET);
+    if (slots <= 0 || (slots & (slots - 1)) != 0 || slotSize <= SLOT_HEADER
+        || HEADER + (long) slots * slotSize > buffer.capacity()) {
+      throw new IllegalArgumentException("Invalid ring header: " + slots + "x" + slotSize
+          + " in " + buffer.capacity() + " bytes.");
+    }
+    record = buffer.duplicate();
+  }
+
+  /**
+   * Create a ring file, replacing any existing file, and open it.
+   *
+   * @param file the ring file.
+   * @param slots the number of records held, rounded up to a power of two.
+   * @param slotSize the size of a slot in bytes, including a 12 byte header.
+   * @return the ring, positioned to write or read the first record.
+   * @throws IOException if the file can not be mapped.
+   */
+  public static MappedRing create(final File file, final int slots, final int slotSize)
+      throws IOException {
+    if (slots <= 0 || slotSize <= SLOT_HEADER) {
+      throw new IllegalArgumentException("Invalid ring size: " + slots + "x" + slotSize);
+    }
+    final int n = slots == 1 ? 1 : Integer.highestOneBit(slots - 1) << 1;
+    final MappedByteBuffer buffer = map(file, HEADER + (long) n * slotSize, true);
+    for (int i = 0; i < n; i++) {
+      buffer.putLong(HEADER + i * slotSize, WRITING);
+    }
+    buffer.putInt(SLOTS_OFFSET, n);
+    buffer.putInt(SLOT_SIZE_OFFSET, slotSize);
+    buffer.putLong(COMMITTED_OFFSET, 0L);
+    storeFence();
+    buffer.putInt(0, MAGIC);
+    return new MappedRing(buffer);
+  }
+
+  /**
+   * Open an existing ring file. A writer continues after the last committed
+   * record, a reader starts at the oldest record still held.
+   *
+   * @param file the ring file.
+   * @param writer true to write to the ring.
+   * @return the ring.
+   * @throws IOException if the file can not be mapped.
+   * @throws IllegalArgumentException if the file is not a valid ring.
+   */
+  public static MappedRing open(final File file, final boolean writer) throws IOException {
+    final MappedRing ring = new MappedRing(map(file, file.length(), false));
+    final long committed = ring.committed();
+    if (committed < 0) {
+      throw new IllegalArgumentException("Invalid ring header: " + committed + " committed.");
+    }
+    ring.next = writer ? committed : Math.max(0, committed - ring.slots);
+    return ring;
+  }
+
+  /**
+   * Map a file.
+   *
+   * @param file the file.
+   * @param size the size to map.
+   * @param truncate true to discard the previous contents.
+   * @return the mapped file.
+   * @throws IOException if the file can not be mapped.
+   */
+  private static MappedByteBuffer map(final File file, final long size, final boolean truncate)
+      throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        FileChannel channel = raf.getChannel()) {
+      if (truncate) {
+        raf.setLength(0);
+        raf.setLength(size);
+      }
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+  }
+
+  /**
+   * Get the number of committed records.
+   *
+   * @return the sequence of the next record the writer commits.
+   */
+  private long committed() {
+    final long c = buffer.getLong(COMMITTED_OFFSET);
+    loadFence();
+    return c;
+  }
+
+  /**
+   * Get the offset of the slot of a sequence.
+   *
+   * @param sequence the sequence.
+   * @return the slot offset.
+   */
+  private int slot(final long sequence) {
+    return HEADER + (int) (sequence & (slots - 1)) * slotSize;
+  }
+
+  /**
+   * Claim the slot of the next record. The returned view is positioned at
+   * the start of the record and limited to the slot, it remains valid
+   * until {@link #commit()}.
+   *
+   * @return the view to write the record to.
+   */
+  public ByteBuffer claim() {
+    claimed = slot(next);
+    buffer.putLong(claimed, WRITING);
+    storeFence();
+    record.limit(claimed + slotSize);
+    record.position(claimed + SLOT_HEADER);
+    return record;
+  }
+
+  /**
+   * Commit the record written since {@link #claim()}, making it visible
+   * to readers.
+   *
+   * @return the sequence of the record.
+   */
+  public long commit() {
+    if (claimed < 0) {
+      throw new IllegalStateException("No record claimed.");
+    }
+    buffer.putInt(claimed + 8, record.position() - claimed - SLOT_HEADER);
+    storeFence();
+    buffer.putLong(claimed, next);
+    storeFence();
+    buffer.putLong(COMMITTED_OFFSET, next + 1);
+    claimed = -1;
+    return next++;
+  }
+
+  /**
+   * Copy the next record.
+   *
+   * @param dest the buffer to copy the record into, it is cleared first and
+   *     flipped after, so it must hold {@link #getMaxRecordSize()} bytes.
+   * @return the sequence of the record, -1 if there is no new record.
+   */
+  public long poll(final ByteBuffer dest) {
+    while (true) {
+      final long committed = committed();
+      if (next >= committed) {
+        return -1;
+      }
+      if (committed - next > slots) {
+        skipTo(committed - slots);
+      }
+      final int offset = slot(next);
+      if (buffer.getLong(offset) != next) {
+        skipTo(next + 1);
+        continue;
+      }
+      loadFence();
+      final int length = buffer.getInt(offset + 8);
+      if (length < 0 || length > slotSize - SLOT_HEADER) {
+        skipTo(next + 1);
+        continue;
+      }
+      dest.clear();
+      record.limit(offset + SLOT_HEADER + length);
+      record.position(offset + SLOT_HEADER);
+      dest.put(record);
+      loadFence();
+      if (buffer.getLong(offset) != next) {
+        skipTo(next + 1);
+        continue;
+      }
+      dest.flip();
+      return next++;
+    }
+  }
+
+  /**
+   * Skip records a reader was overrun on.
+   *
+   * @param sequence the sequence to continue from.
+   */
+  private void skipTo(final long sequence) {
+    lost += sequence - next;
+    next = sequence;
+  }
+
+  /**
+   * Get the largest record this ring holds.
+   *
+   * @return the maximum record size in bytes.
+   */
+  public int getMaxRecordSize() {
+    return slotSize - SLOT_HEADER;
+  }
+
+  /**
+   * Get the number of records held.
+   *
+   * @return the number of slots.
+   */
+  public int capacity() {
+    return slots;
+  }
+
+  /**
+   * Get the sequence of the next record this ring writes or reads.
+   *
+   * @return the next sequence.
+   */
+  public long getSequence() {
+    return next;
+  }
+
+  /**
+   * Get the number of records this reader lost because it was overrun.
+   *
+   * @return the number of lost records.
+   */
+  public long getLost() {
+    return lost;
+  }
+
+  /**
+   * Order loads before the fence with loads and stores after it.
+   */
+  private static void loadFence() {
+    if (LOAD_FENCE == null) {
+      fence++;
+      return;
+    }
+    try {
+      LOAD_FENCE.invokeExact();
+    } catch (Throwable t1) {
+      throw new IllegalStateException(t1);
+    }
+  }
+
+  /**
+   * Order loads and stores before the fence with stores after it.
+   */
+  private static void storeFence() {
+    if (STORE_FENCE == null) {
+      fence++;
+      return;
+    }
+    try {
+      STORE_FENCE.invokeExact();
+    } catch (Throwable t1) {
+      throw new IllegalStateException(t1);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package com.onyx.common.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>Bounded, preallocated multi-producer multi-consumer ring buffer.</p>
+ * <p>Works like {@link MpscRingBuffer} except that consumers also claim
+ * slots with a CAS on the head, so any thread may offer and poll. Offering
+ * and polling never allocate and never take a monitor.</p>
+ *
+ * @param <E> the element type.
+ *
+ * @author fred
+ *
+ */
+public final class MpmcRingBuffer<E> {
+
+  /**
+   * Slot index mask, capacity - 1.
+   */
+  private final int mask;
+
+  /**
+   * Capacity of this ring.
+   */
+  private final int capacity;
+
+  /**
+   * Ring elements.
+   */
+  private final AtomicReferenceArray<E> buffer;
+
+  /**
+   * Slot sequence numbers.
+   */
+  private final AtomicLongArray sequences;
+
+  /**
+   * Next position to be claimed by a producer.
+   */
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * Next position to be claimed by a consumer.
+   */
+  private final AtomicLong head = new AtomicLong();
+
+  /**
+   * Create a new ring buffer.
+   *
+   * @param capacity the minimum capacity, rounded up to a power of two of at least two.
+   */
+  public MpmcRingBuffer(final int capacity) {
+    if (capacity <= 0 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Invalid ring buffer capacity: " + capacity);
+    }
+    this.capacity = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+    this.mask = this.capacity - 1;
+    this.buffer = new AtomicReferenceArray<E>(this.capacity);
+    this.sequences = new AtomicLongArray(this.capacity);
+    for (int i = 0; i < this.capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Offer an element to this ring.
+   *
+   * @param e the element.
+   * @return false if the ring is full.
+   */
+  public boolean offer(final E e) {
+    if (e == null) {
+      throw new NullPointerException();
+    }
+    while (true) {
+      final long t = tail.get();
+      final int i = (int) t & mask;
+      final long diff = sequences.get(i) - t;
+      if (diff == 0) {
+        if (tail.compareAndSet(t, t + 1)) {
+          buffer.lazySet(i, e);
+          sequences.lazySet(i, t + 1);
+          return true;
+        }
+      } else if (diff < 0) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Take the next element.
+   *
+   * @return the next element or null if the ring is empty.
+   */
+  public E poll() {
+    while (true) {
+      final long h = head.get();
+      final int i = (int) h & mask;
+      final long diff = sequences.get(i) - (h + 1);
+      if (diff == 0) {
+        if (head.compareAndSet(h, h + 1)) {
+          final E e = buffer.get(i);
+          buffer.lazySet(i, null);
+          sequences.lazySet(i, h + capacity);
+          return e;
+        }
+      } else if (diff < 0) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Get the approximate number of elements in this ring.
+   *
+   * @return the number of elements.
+   */
+  public int size() {
+    final long size = tail.get() - head.get();
+    return (int) Math.max(0, Math.min(size, capacity));
+  }
+
+  /**
+   * Get the capacity of this ring.
+   *
+   * @return the capacity.
+   */
+  public int capacity() {
+    return capacity;
+  }
+}
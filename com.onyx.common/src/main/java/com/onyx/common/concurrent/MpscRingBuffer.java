@@ -0,0 +1,172 @@
+package com.onyx.common.concurrent;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>Bounded, preallocated multi-producer single-consumer ring buffer.</p>
+ * <p>Each slot carries a sequence number. A producer claims a slot by a CAS
+ * on the tail and publishes it by advancing the slot sequence, the consumer
+ * takes a slot once its sequence shows it was published. Offering and
+ * polling never allocate and never take a monitor. Polling an empty ring is
+ * a single volatile read.</p>
+ * <p>Any thread may offer, only one thread at a time may poll or drain.</p>
+ *
+ * @param <E> the element type.
+ *
+ * @author fred
+ *
+ */
+public final class MpscRingBuffer<E> {
+
+  /**
+   * Slot index mask, capacity - 1.
+   */
+  private final int mask;
+
+  /**
+   * Capacity of this ring.
+   */
+  private final int capacity;
+
+  /**
+   * Ring elements.
+   */
+  private final AtomicReferenceArray<E> buffer;
+
+  /**
+   * Slot sequence numbers.
+   */
+  private final AtomicLongArray sequences;
+
+  /**
+   * Next position to be claimed by a producer.
+   */
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * Next position to be taken by the consumer.
+   */
+  private final AtomicLong head = new AtomicLong();
+
+  /**
+   * Create a new ring buffer.
+   *
+   * @param capacity the minimum capacity, rounded up to a power of two of at least two.
+   */
+  public MpscRingBuffer(final int capacity) {
+    if (capacity <= 0 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Invalid ring buffer capacity: " + capacity);
+    }
+    this.capacity = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+    this.mask = this.capacity - 1;
+    this.buffer = new AtomicReferenceArray<E>(this.capacity);
+    this.sequences = new AtomicLongArray(this.capacity);
+    for (int i = 0; i < this.capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Offer an element to this ring, may be called from any thread.
+   *
+   * @param e the element.
+   * @return false if the ring is full.
+   */
+  public boolean offer(final E e) {
+    if (e == null) {
+      throw new NullPointerException();
+    }
+    while (true) {
+      final long t = tail.get();
+      final int i = (int) t & mask;
+      final long diff = sequences.get(i) - t;
+      if (diff == 0) {
+        if (tail.compareAndSet(t, t + 1)) {
+          buffer.lazySet(i, e);
+          sequences.lazySet(i, t + 1);
+          return true;
+        }
+      } else if (diff < 0) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Take the next element, may only be called by the consumer.
+   *
+   * @return the next element or null if the ring is empty.
+   */
+  public E poll() {
+    final long h = head.get();
+    final int i = (int) h & mask;
+    if (sequences.get(i) != h + 1) {
+      return null;
+    }
+    final E e = buffer.get(i);
+    buffer.lazySet(i, null);
+    sequences.lazySet(i, h + capacity);
+    head.lazySet(h + 1);
+    return e;
+  }
+
+  /**
+   * Take every published element into a collection, may only be called by the consumer.
+   *
+   * @param sink the collection to add elements to.
+   * @return the number of elements drained.
+   */
+  public int drainTo(final Collection<? super E> sink) {
+    int count = 0;
+    E e = poll();
+    while (e != null) {
+      sink.add(e);
+      count++;
+      if (count == capacity) {
+        break;
+      }
+      e = poll();
+    }
+    return count;
+  }
+
+  /**
+   * Discard every element, may only be called by the consumer.
+   */
+  public void clear() {
+    while (poll() != null) {
+      // Discard.
+    }
+  }
+
+  /**
+   * Get the approximate number of elements in this ring.
+   *
+   * @return the number of elements.
+   */
+  public int size() {
+    final long size = tail.get() - head.get();
+    return (int) Math.max(0, Math.min(size, capacity));
+  }
+
+  /**
+   * Return true if this ring is empty.
+   *
+   * @return true if there are no published elements.
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Get the capacity of this ring.
+   *
+   * @return the capacity.
+   */
+  public int capacity() {
+    return capacity;
+  }
+}
@@ -2,10 +2,18 @@ package com.onyx.common.messaging;
 
 import java.io.Serializable;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
  * Agent Communication Language Message.
+ * <p>Messages taken from an {@link AclMessagePool} are reference counted, see
+ * {@link #retain()} and {@link #release()}. The UUID of a message is only
+ * generated when it is first asked for, since most messages never get a reply.</p>
+ * <p>Numeric payloads such as sensor vectors and setpoints are carried in a
+ * fixed size vector of doubles, see {@link #setVector(double, double, double)},
+ * so they are never formatted into or parsed from the content string.</p>
  *
  * @author fredladeroute
  */
@@ -17,6 +25,17 @@ public final class AclMessage implements Serializable, Comparable<AclMessage> {
    */
   private static final long serialVersionUID = 8967159441840581610L;
 
+  /**
+   * Reference count updater.
+   */
+  private static final AtomicIntegerFieldUpdater<AclMessage> REFS =
+      AtomicIntegerFieldUpdater.newUpdater(AclMessage.class, "refs");
+
+  /**
+   * Maximum number of elements in the vector payload.
+   */
+  public static final int VECTOR_SIZE = 4;
+
   /**
    * Message type for this ACL Message.
    */
@@ -52,6 +71,16 @@ public final class AclMessage implements Serializable, Comparable<AclMessage> {
    */
   private double value;
 
+  /**
+   * The vector payload of this message.
+   */
+  private final double[] vector = new double[VECTOR_SIZE];
+
+  /**
+   * Number of elements set in the vector payload, 0 if there is none.
+   */
+  private int vectorLength;
+
   /**
    * The priority of this ACLMessage.
    */
@@ -62,6 +91,37 @@ public final class AclMessage implements Serializable, Comparable<AclMessage> {
    */
   private UUID uuid;
 
+  /**
+   * Correlation id matching a reply to its request, 0 if none.
+   */
+  private long correlationId;
+
+  /**
+   * Time this message was posted to the blackboard, 0 unless traced.
+   */
+  private transient long enqueuedNanos;
+
+  /**
+   * Commit sequence of the batch this message belongs to, null if it is
+   * not part of a batch.
+   */
+  private transient AtomicLong commitGate;
+
+  /**
+   * Sequence the commit gate must reach before this message is visible.
+   */
+  private transient long commitSequence;
+
+  /**
+   * The pool this message is returned to, null if not pooled.
+   */
+  private final transient AclMessagePool pool;
+
+  /**
+   * Number of references held to this pooled message.
+   */
+  private transient volatile int refs;
+
   /**
    * Contruct a new ACL message given a message type and an ActionID.
    *
@@ -70,12 +130,109 @@ public final class AclMessage implements Serializable, Comparable<AclMessage> {
    * @param id the ActionID of this message
    */
   public AclMessage(final MessageType type, final ActionId id) {
-    if (type == MessageType.EMPTY) {
-      isEmpty = true;
-    }
+    this.pool = null;
+    init(type, id);
+  }
+
+  /**
+   * Construct a new pooled message.
+   *
+   * @param pool the pool this message is returned to.
+   */
+  AclMessage(final AclMessagePool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Set the type and action of this message, taking one reference.
+   *
+   * @param type the message type.
+   * @param id the action id.
+   */
+  final void init(final MessageType type, final ActionId id) {
+    isEmpty = type == MessageType.EMPTY;
     setId(type);
     setActionId(id);
-    uuid = UUID.randomUUID();
+    refs = 1;
+  }
+
+  /**
+   * Clear every field of this message.
+   */
+  void reset() {
+    messageType = null;
+    actionId = null;
+    content = null;
+    sender = null;
+    reciever = null;
+    isEmpty = false;
+    value = 0;
+    vectorLength = 0;
+    priority = AclPriority.MEDIUM;
+    uuid = null;
+    correlationId = 0;
+    enqueuedNanos = 0;
+    commitGate = null;
+    commitSequence = 0;
+    refs = 0;
+  }
+
+  /**
+   * Copy every field but the type and action of another message into this one.
+   *
+   * @param other the message to copy.
+   * @return this message.
+   */
+  public AclMessage copyFrom(final AclMessage other) {
+    content = other.content;
+    sender = other.sender;
+    reciever = other.reciever;
+    value = other.value;
+    System.arraycopy(other.vector, 0, vector, 0, other.vectorLength);
+    vectorLength = other.vectorLength;
+    priority = other.priority;
+    uuid = other.uuid;
+    correlationId = other.correlationId;
+    return this;
+  }
+
+  /**
+   * Return true if this message is returned to a pool once released.
+   *
+   * @return true if this message is pooled.
+   */
+  public boolean isPooled() {
+    return pool != null;
+  }
+
+  /**
+   * Take another reference to this message. Has no effect on messages
+   * which are not pooled.
+   *
+   * @return this message.
+   */
+  public AclMessage retain() {
+    if (pool != null && REFS.getAndIncrement(this) <= 0) {
+      throw new IllegalStateException("Retained a released message.");
+    }
+    return this;
+  }
+
+  /**
+   * Release a reference to this message, the message must not be used by the
+   * caller afterwards. Once the last reference is released a pooled message
+   * is returned to its pool. Has no effect on messages which are not pooled.
+   */
+  public void release() {
+    if (pool == null) {
+      return;
+    }
+    final int left = REFS.decrementAndGet(this);
+    if (left == 0) {
+      pool.recycle(this);
+    } else if (left < 0) {
+      throw new IllegalStateException("Released a message too many times.");
+    }
   }
 
   /**
@@ -197,8 +354,12 @@ public final class AclMessage implements Serializable, Comparable<AclMessage> {
 
   @Override
   public String toString() {
-    return "{" + messageType.name() + "," + sender.name() + "," + reciever.name() + "," + content
-        + "}";
+    final StringBuilder sb = new StringBuilder("{").append(messageType.name()).append(',')
+        .append(sender.name()).append(',').append(reciever.name()).append(',').append(content);
+    for (int i = 0; i < vectorLength; i++) {
+      sb.append(i == 0 ? ",[" : ",").append(vector[i]);
+    }
+    return sb.append(vectorLength > 0 ? "]}" : "}").toString();
   }
 
   /**
@@ -220,6 +381,78 @@ public final class AclMessage implements Serializable, Comparable<AclMessage> {
     this.value = value;
   }
 
+  /**
+   * Set a three element vector payload.
+   *
+   * @param x the first element.
+   * @param y the second element.
+   * @param z the third element.
+   */
+  public void setVector(final double x, final double y, final double z) {
+    vector[0] = x;
+    vector[1] = y;
+    vector[2] = z;
+    vectorLength = 3;
+  }
+
+  /**
+   * Set a four element vector payload.
+   *
+   * @param x the first element.
+   * @param y the second element.
+   * @param z the third element.
+   * @param w the fourth element.
+   */
+  public void setVector(final double x, final double y, final double z, final double w) {
+    setVector(x, y, z);
+    vector[3] = w;
+    vectorLength = 4;
+  }
+
+  /**
+   * Get an element of the vector payload.
+   *
+   * @param index the element index.
+   * @return the element.
+   * @throws IndexOutOfBoundsException if index is not less than {@link #getVectorLength()}.
+   */
+  public double getVector(final int index) {
+    if (index < 0 || index >= vectorLength) {
+      throw new IndexOutOfBoundsException("Vector index " + index + " of " + vectorLength);
+    }
+    return vector[index];
+  }
+
+  /**
+   * Copy the vector payload into an array, truncated to the array length.
+   *
+   * @param dest the array to copy into.
+   * @return the number of elements copied.
+   */
+  public int getVector(final double[] dest) {
+    final int n = Math.min(dest.length, vectorLength);
+    System.arraycopy(vector, 0, dest, 0, n);
+    return n;
+  }
+
+  /**
+   * Get the number of elements in the vector payload.
+   *
+   * @return the vector length, 0 if there is no vector payload.
+   */
+  public int getVectorLength() {
+    return vectorLength;
+  }
+
+  /**
+   * Return true if this message carries a vector payload.
+   *
+   * @return true if a vector has been set.
+   */
+  public boolean hasVector() {
+    return vectorLength > 0;
+  }
+
   /**
    * Get the priority of this ACLMessage in relation to all other messages.
    * 
@@ -256,6 +489,10 @@ public final class AclMessage implements Serializable, Comparable<AclMessage> {
     long temp;
     temp = Double.doubleToLongBits(value);
     result = (prime * result) + (int) (temp ^ (temp >>> 32));
+    for (int i = 0; i < vectorLength; i++) {
+      temp = Double.doubleToLongBits(vector[i]);
+      result = (prime * result) + (int) (temp ^ (temp >>> 32));
+    }
     return result;
   }
 
@@ -279,6 +516,14 @@ public final class AclMessage implements Serializable, Comparable<AclMessage> {
     if (actionId != other.actionId) {
       return false;
     }
+    if (vectorLength != other.vectorLength) {
+      return false;
+    }
+    for (int i = 0; i < vectorLength; i++) {
+      if (Double.doubleToLongBits(vector[i]) != Double.doubleToLongBits(other.vector[i])) {
+        return false;
+      }
+    }
     if (content == null) {
       if (other.content != null) {
         return false;
@@ -310,12 +555,84 @@ public final class AclMessage implements Serializable, Comparable<AclMessage> {
   }
   
   /**
-   * Get the UUID for this Message.
+   * Get the UUID for this Message, generating it if it has not been assigned.
    * @return
    *     the UUID for this ACL Message.
    */
   public UUID getUuid() {
+    if (uuid == null) {
+      uuid = UUID.randomUUID();
+    }
     return uuid;
   }
 
+  /**
+   * Get the correlation id of this message. A reply carries the
+   * correlation id of the request it answers.
+   *
+   * @return the correlation id, 0 if none.
+   */
+  public long getCorrelationId() {
+    return correlationId;
+  }
+
+  /**
+   * Set the correlation id of this message.
+   *
+   * @param correlationId the correlation id, 0 for none.
+   */
+  public void setCorrelationId(final long correlationId) {
+    this.correlationId = correlationId;
+  }
+
+  /**
+   * Get the time this message was posted to the blackboard.
+   *
+   * @return the enqueue time in nanoseconds, 0 unless the message was traced.
+   */
+  public long getEnqueuedNanos() {
+    return enqueuedNanos;
+  }
+
+  /**
+   * Set the time this message was posted to the blackboard.
+   *
+   * @param enqueuedNanos the enqueue time in nanoseconds.
+   */
+  public void setEnqueuedNanos(final long enqueuedNanos) {
+    this.enqueuedNanos = enqueuedNanos;
+  }
+
+  /**
+   * Make this message part of a batch. It only becomes visible to its
+   * receiver once the gate reaches the given sequence.
+   *
+   * @param gate the commit sequence of the batch.
+   * @param sequence the sequence committing this message.
+   */
+  public void setCommitGate(final AtomicLong gate, final long sequence) {
+    commitGate = gate;
+    commitSequence = sequence;
+  }
+
+  /**
+   * Return true unless this message belongs to a batch which has not been
+   * committed yet.
+   *
+   * @return true if this message may be handled.
+   */
+  public boolean isCommitted() {
+    final AtomicLong gate = commitGate;
+    return gate == null || gate.get() >= commitSequence;
+  }
+
+  /**
+   * Return true if a UUID has been assigned to this message.
+   *
+   * @return true if this message has a UUID.
+   */
+  public boolean hasUuid() {
+    return uuid != null;
+  }
+
 }
@@ -0,0 +1,156 @@
+package com.onyx.common.messaging;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>Compact binary encoding of {@link AclMessage}s for exchange with other
+ * processes.</p>
+ * <p>A record holds the message type, action, sender, receiver, priority,
+ * correlation id, value, vector payload and content. Enums are encoded by
+ * ordinal, so both sides must use the same version of this library. Content
+ * is encoded as UTF-8 and truncated to the space left in the buffer, on a
+ * character boundary. The UUID is not encoded.</p>
+ * <p>Records come from other processes, so decoding rejects unknown ordinals,
+ * vectors of other than 0, 3 or 4 elements and records shorter than their
+ * header announces with an
+ * {@link IllegalArgumentException} rather than failing part way.</p>
+ *
+ * @author fred
+ *
+ */
+public final class AclMessageCodec {
+
+  /**
+   * Size of a record without vector and content.
+   */
+  public static final int HEADER_SIZE = 24;
+
+  /**
+   * Utility class.
+   */
+  private AclMessageCodec() {}
+
+  /**
+   * Encode a message at the position of a buffer, advancing the position.
+   *
+   * @param msg the message.
+   * @param dst the buffer.
+   */
+  public static void encode(final AclMessage msg, final ByteBuffer dst) {
+    final int n = msg.getVectorLength();
+    dst.put((byte) msg.getMessageType().ordinal());
+    dst.put((byte) msg.getActionId().ordinal());
+    dst.put((byte) msg.getSender().ordinal());
+    dst.put((byte) msg.getReciever().ordinal());
+    dst.put((byte) msg.getPriority().ordinal());
+    dst.put((byte) n);
+    final String content = msg.getContent();
+    final byte[] text = content == null || content.isEmpty() ? null
+        : content.getBytes(StandardCharsets.UTF_8);
+    final int space = dst.remaining() + 6 - HEADER_SIZE - n * 8;
+    int length = text == null ? 0
+        : Math.max(0, Math.min(text.length, Math.min(Short.MAX_VALUE, space)));
+    while (length > 0 && length < text.length && (text[length] & 0xC0) == 0x80) {
+      // Do not split a multi-byte character.
+      length--;
+    }
+    dst.putShort((short) (content == null ? -1 : length));
+    dst.putLong(msg.getCorrelationId());
+    dst.putDouble(msg.getValue());
+    for (int i = 0; i < n; i++) {
+      dst.putDouble(msg.getVector(i));
+    }
+    if (length > 0) {
+      dst.put(text, 0, length);
+    }
+  }
+
+  /**
+   * Get the message type of the record at the position of a buffer.
+   *
+   * @param src the buffer.
+   * @return the message type.
+   * @throws IllegalArgumentException if the ordinal is out of range.
+   */
+  public static MessageType getMessageType(final ByteBuffer src) {
+    return MessageType.values()[ordinal(src.get(src.position()), MessageType.values().length)];
+  }
+
+  /**
+   * Get the action id of the record at the position of a buffer.
+   *
+   * @param src the buffer.
+   * @return the action id.
+   * @throws IllegalArgumentException if the ordinal is out of range.
+   */
+  public static ActionId getActionId(final ByteBuffer src) {
+    return ActionId.values()[ordinal(src.get(src.position() + 1), ActionId.values().length)];
+  }
+
+  /**
+   * Decode the record at the position of a buffer into a message, advancing
+   * the position. The message type and action id of the record are read with
+   * {@link #getMessageType(ByteBuffer)} and {@link #getActionId(ByteBuffer)}.
+   *
+   * @param src the buffer.
+   * @param msg the message to decode into.
+   * @throws IllegalArgumentException if the record is malformed, the
+   *     message is left unchanged.
+   */
+  public static void decode(final ByteBuffer src, final AclMessage msg) {
+    final int start = src.position();
+    if (src.remaining() < HEADER_SIZE) {
+      throw new IllegalArgumentException("Truncated record header.");
+    }
+    final int n = src.get(start + 5);
+    final int length = src.getShort(start + 6);
+    if ((n != 0 && n != 3 && n != 4)
+        || src.remaining() < HEADER_SIZE + n * 8 + Math.max(0, length)) {
+      throw new IllegalArgumentException("Malformed record: vector " + n + ", content " + length);
+    }
+    final ActionId action = getActionId(src);
+    final DeviceId sender =
+        DeviceId.values()[ordinal(src.get(start + 2), DeviceId.values().length)];
+    final DeviceId receiver =
+        DeviceId.values()[ordinal(src.get(start + 3), DeviceId.values().length)];
+    final AclPriority priority =
+        AclPriority.values()[ordinal(src.get(start + 4), AclPriority.values().length)];
+    src.position(start + 8);
+    msg.setActionId(action);
+    msg.setSender(sender);
+    msg.setReciever(receiver);
+    msg.setPriority(priority);
+    msg.setCorrelationId(src.getLong());
+    msg.setValue(src.getDouble());
+    if (n == 3) {
+      msg.setVector(src.getDouble(), src.getDouble(), src.getDouble());
+    } else if (n == 4) {
+      msg.setVector(src.getDouble(), src.getDouble(), src.getDouble(), src.getDouble());
+    }
+    if (length < 0) {
+      msg.setContent(null);
+    } else if (length == 0) {
+      msg.setContent("");
+    } else {
+      final byte[] text = new byte[length];
+      src.get(text);
+      msg.setContent(new String(text, StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Check an encoded enum ordinal.
+   *
+   * @param b the encoded ordinal.
+   * @param count the number of constants of the enum.
+   * @return the ordinal.
+   * @throws IllegalArgumentException if the ordinal is out of range.
+   */
+  private static int ordinal(final byte b, final int count) {
+    if (b < 0 || b >= count) {
+      throw new IllegalArgumentException("Invalid ordinal: " + b);
+    }
+    return b;
+  }
+}
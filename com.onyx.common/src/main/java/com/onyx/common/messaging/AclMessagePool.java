@@ -0,0 +1,108 @@
+package com.onyx.common.messaging;
+
+import com.onyx.common.concurrent.MpmcRingBuffer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Pool of recyclable {@link AclMessage} instances.</p>
+ * <p>{@link #acquire(MessageType, ActionId)} hands out a message holding a
+ * single reference. Whoever holds a reference either passes it on or calls
+ * {@link AclMessage#release()}, when the last reference is released the
+ * message is reset and returned here. If the pool is empty a new message is
+ * allocated and if it is full a released message is left to the garbage
+ * collector, so the pool never blocks.</p>
+ *
+ * @author fred
+ *
+ */
+public final class AclMessagePool {
+
+  /**
+   * Free messages.
+   */
+  private final MpmcRingBuffer<AclMessage> free;
+
+  /**
+   * Number of messages allocated because the pool was empty.
+   */
+  private final AtomicLong allocated = new AtomicLong();
+
+  /**
+   * Number of messages handed out.
+   */
+  private final AtomicLong acquired = new AtomicLong();
+
+  /**
+   * Create a new pool and preallocate its messages.
+   *
+   * @param capacity the number of messages to keep, rounded up to a power of two of at least two.
+   */
+  public AclMessagePool(final int capacity) {
+    free = new MpmcRingBuffer<AclMessage>(capacity);
+    for (int i = 0; i < free.capacity(); i++) {
+      free.offer(new AclMessage(this));
+    }
+  }
+
+  /**
+   * Take a message from this pool.
+   *
+   * @param type the message type.
+   * @param id the action id.
+   * @return a message holding one reference.
+   */
+  public AclMessage acquire(final MessageType type, final ActionId id) {
+    AclMessage m = free.poll();
+    if (m == null) {
+      allocated.incrementAndGet();
+      m = new AclMessage(this);
+    }
+    acquired.incrementAndGet();
+    m.init(type, id);
+    return m;
+  }
+
+  /**
+   * Return a message whose last reference was released.
+   *
+   * @param m the message.
+   */
+  void recycle(final AclMessage m) {
+    m.reset();
+    free.offer(m);
+  }
+
+  /**
+   * Get the number of free messages.
+   *
+   * @return the number of messages available without allocating.
+   */
+  public int available() {
+    return free.size();
+  }
+
+  /**
+   * Get the number of messages allocated because the pool was empty.
+   *
+   * @return the number of pool misses.
+   */
+  public long getAllocated() {
+    return allocated.get();
+  }
+
+  /**
+   * Get the number of messages handed out.
+   *
+   * @return the number of acquires.
+   */
+  public long getAcquired() {
+    return acquired.get();
+  }
+
+  @Override
+  public String toString() {
+    return "acquired=" + acquired.get() + " allocated=" + allocated.get()
+        + " free=" + free.size();
+  }
+}
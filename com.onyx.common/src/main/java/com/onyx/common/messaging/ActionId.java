@@ -109,7 +109,18 @@ public enum ActionId {
   
   SHUTDOWN(21), 
   
-  CLOSE_CONNECTION(22);
+  CLOSE_CONNECTION(22),
+
+  /**
+   * Get control loop timing statistics.
+   */
+  GET_TIMING(23),
+
+  /**
+   * Get blackboard message latency statistics. Content may be enable,
+   * disable or reset.
+   */
+  GET_LATENCY(24);
 
   /**
    * The internal ID field.
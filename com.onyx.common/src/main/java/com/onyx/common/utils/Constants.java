@@ -167,25 +167,83 @@ public final class Constants {
    */
   public static final TimeUnit CONTROLLER_TIMEUNIT = TimeUnit.MICROSECONDS;
 
+  /**
+   * Frequency of the dedicated flight control loop in hertz.
+   */
+  public static final int CONTROL_LOOP_FREQUENCY =
+      PROPERTIES.getIntegerProperty("com.onyx.quadcopter.control.loop.frequency", 1000);
+
+  /**
+   * Control loop period in nanoseconds.
+   */
+  public static final long CONTROL_LOOP_PERIOD_NANOS =
+      TimeUnit.SECONDS.toNanos(1) / Math.max(1, CONTROL_LOOP_FREQUENCY);
+
+  /**
+   * How long before a control loop deadline to stop parking and start spinning, in microseconds.
+   */
+  public static final long CONTROL_LOOP_SPIN =
+      PROPERTIES.getLongProperty("com.onyx.quadcopter.control.loop.spin", 50);
+
+  /**
+   * True to run the flight stack against a simulated clock, advanced one control
+   * loop period per tick as fast as possible rather than in real time.
+   */
+  public static final boolean SIMULATED_CLOCK =
+      PROPERTIES.getBooleanProperty("com.onyx.quadcopter.clock.simulated", false);
+
+  /**
+   * Number of consecutive control loop deadlines missed before the watchdog
+   * drives the motors to the safe pulse width.
+   */
+  public static final int WATCHDOG_MISSED_DEADLINES =
+      PROPERTIES.getIntegerProperty("com.onyx.quadcopter.watchdog.missed.deadlines", 5);
+
+  /**
+   * Pulse width written to every motor by the watchdog, in microseconds.
+   */
+  public static final int WATCHDOG_SAFE_PULSE_WIDTH =
+      PROPERTIES.getIntegerProperty("com.onyx.quadcopter.watchdog.safe.pulse.width", 1000);
+
+  /**
+   * Number of watchdog interventions kept in the history.
+   */
+  public static final int WATCHDOG_HISTORY = 16;
+
   /**
    * Database create statement.
    */
   public static final String DATABASE_CREATE = "CREATE TABLE IF NOT EXISTS blackboard ("
       + "ID INTEGER PRIMARY KEY AUTOINCREMENT, TO_DEVICE_ID INTEGER, FROM_DEVICE_ID INTEGER,"
-      + "ACTION_ID INTEGER, MSG_TYPE INTEGER, CONTENT VARCHAR(32), VALUE REAL);";
+      + "ACTION_ID INTEGER, MSG_TYPE INTEGER, CONTENT VARCHAR(32), VALUE REAL,"
+      + "PRIORITY INTEGER, TIMESTAMP INTEGER, VECTOR BLOB);";
+
+  /**
+   * Columns added to the blackboard table since its first version, added to
+   * an existing database when it is opened.
+   */
+  public static final String[] DATABASE_ADDED_COLUMNS = {
+      "PRIORITY INTEGER", "TIMESTAMP INTEGER", "VECTOR BLOB"};
 
   /**
    * Create add message statment.
    */
   public static final String ADD_MESSAGE_STATEMENT =
       "INSERT INTO blackboard (TO_DEVICE_ID, FROM_DEVICE_ID, "
-          + "ACTION_ID, MSG_TYPE, CONTENT, VALUE) VALUES (?,?,?,?,?,?);";
+          + "ACTION_ID, MSG_TYPE, CONTENT, VALUE, PRIORITY, TIMESTAMP, VECTOR) "
+          + "VALUES (?,?,?,?,?,?,?,?,?);";
 
   /**
    * Create get message statement.
    */
   public static final String GET_MESSAGE_STATEMENT =
-      "SELECT * FROM blackboard WHERE TO_DEVICE_ID='?';";
+      "SELECT * FROM blackboard WHERE TO_DEVICE_ID=? ORDER BY ID;";
+
+  /**
+   * Get every message in the order it was journaled.
+   */
+  public static final String GET_ALL_MESSAGES_STATEMENT =
+      "SELECT * FROM blackboard ORDER BY ID;";
 
   /**
    * Transmission QoS value.
@@ -227,6 +285,25 @@ public final class Constants {
   public static final int NUM_THREADS = PROPERTIES.getIntegerProperty(
       "com.onyx.quadcopter.numthreads", Runtime.getRuntime().availableProcessors());
 
+  /**
+   * Number of quadcopter background coordinator threads, 0 to use the cores
+   * left over by the thread budget.
+   */
+  public static final int NUM_COORDINATOR_THREADS = PROPERTIES.getIntegerProperty(
+      "com.onyx.quadcopter.coordinator.threads", 0);
+
+  /**
+   * Number of Netty worker event loop threads.
+   */
+  public static final int NUM_NIO_WORKER_THREADS =
+      PROPERTIES.getIntegerProperty("com.onyx.quadcopter.nio.worker.threads", 1);
+
+  /**
+   * Maximum number of platform threads for blocking I/O when virtual threads are unavailable.
+   */
+  public static final int NUM_IO_THREADS =
+      PROPERTIES.getIntegerProperty("com.onyx.quadcopter.io.threads", 6);
+
   /**
    * Maximum Blackboard size.
    */
@@ -304,6 +381,12 @@ public final class Constants {
   public static final int OLED_MAX_MSGS =
       PROPERTIES.getIntegerProperty("com.onyx.quadcopter.oled.max.msgs", 32);
 
+  /**
+   * Period in milliseconds the OLED device refreshes the orientation it shows.
+   */
+  public static final long OLED_REFRESH_PERIOD =
+      PROPERTIES.getLongProperty("com.onyx.quadcopter.oled.refresh.period", 1000);
+
   /**
    * Default UART port ID.
    */
@@ -433,10 +516,84 @@ public final class Constants {
       PROPERTIES.getIntegerProperty("com.onyx.quadcopter.i2c.oled.y", 0);
 
   /**
-   * Max size of the blackboard Concurrent stack.
+   * Capacity of each blackboard ring of a device, kept well above the
+   * mailbox size so bursts are shed by the mailbox overflow policy rather
+   * than by the ring, which always drops the newest message.
    */
   public static final int MAX_BLACKBOARD_BUCKET_SIZE =
-      PROPERTIES.getIntegerProperty("com.onyx.quadcopter.blackboard.max.bucket.size", 32);
+      PROPERTIES.getIntegerProperty("com.onyx.quadcopter.blackboard.max.bucket.size", 256);
+
+  /**
+   * Capacity of a device mailbox.
+   */
+  public static final int MAILBOX_SIZE =
+      PROPERTIES.getIntegerProperty("com.onyx.quadcopter.blackboard.mailbox.size", 32);
+
+  /**
+   * Number of preallocated blackboard messages.
+   */
+  public static final int MESSAGE_POOL_SIZE =
+      PROPERTIES.getIntegerProperty("com.onyx.quadcopter.blackboard.message.pool.size", 1024);
+
+  /**
+   * Milliseconds to wait for the reply to a request before failing it.
+   */
+  public static final long REPLY_TIMEOUT =
+      PROPERTIES.getLongProperty("com.onyx.quadcopter.reply.timeout", 1000L);
+
+  /**
+   * True to trace blackboard message latencies from startup.
+   */
+  public static final boolean MESSAGE_TRACING =
+      PROPERTIES.getBooleanProperty("com.onyx.quadcopter.blackboard.tracing", false);
+
+  /**
+   * True to journal every blackboard message to the database.
+   */
+  public static final boolean JOURNAL_ENABLED =
+      PROPERTIES.getBooleanProperty("com.onyx.quadcopter.blackboard.journal", false);
+
+  /**
+   * Number of messages the journal buffers before dropping.
+   */
+  public static final int JOURNAL_QUEUE_SIZE =
+      PROPERTIES.getIntegerProperty("com.onyx.quadcopter.blackboard.journal.queue.size", 4096);
+
+  /**
+   * Maximum number of messages the journal writes per transaction.
+   */
+  public static final int JOURNAL_BATCH_SIZE =
+      PROPERTIES.getIntegerProperty("com.onyx.quadcopter.blackboard.journal.batch.size", 256);
+
+  /**
+   * True to bridge blackboard topics to other processes through shared memory.
+   */
+  public static final boolean SHM_BRIDGE_ENABLED =
+      PROPERTIES.getBooleanProperty("com.onyx.quadcopter.shm.enabled", false);
+
+  /**
+   * Directory of the shared memory ring files.
+   */
+  public static final String SHM_DIR =
+      PROPERTIES.getStringProperty("com.onyx.quadcopter.shm.dir", "/dev/shm");
+
+  /**
+   * Comma separated action ids forwarded to other processes.
+   */
+  public static final String SHM_TOPICS =
+      PROPERTIES.getStringProperty("com.onyx.quadcopter.shm.topics", "GYRO,ORIENT");
+
+  /**
+   * Number of records held by each shared memory ring.
+   */
+  public static final int SHM_SLOTS =
+      PROPERTIES.getIntegerProperty("com.onyx.quadcopter.shm.slots", 1024);
+
+  /**
+   * Size of a shared memory ring record in bytes.
+   */
+  public static final int SHM_SLOT_SIZE =
+      PROPERTIES.getIntegerProperty("com.onyx.quadcopter.shm.slot.size", 256);
 
   /**
    * The default task priority.
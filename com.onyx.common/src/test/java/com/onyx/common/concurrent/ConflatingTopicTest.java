@@ -0,0 +1,49 @@
+package com.onyx.common.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ConflatingTopicTest {
+
+	@Test
+	public void testLatestValueWins() {
+		ConflatingTopic topic = new ConflatingTopic(4);
+		ConflatingTopic.Sample sample = new ConflatingTopic.Sample(4);
+		assertFalse(topic.read(sample));
+		topic.publish(1, 2, 3, 100);
+		topic.publish(4, 5, 6, 200);
+		assertTrue(topic.readIfNewer(sample));
+		assertEquals(2, sample.getSequence());
+		assertEquals(200, sample.getTimestamp());
+		assertEquals(3, sample.getLength());
+		assertEquals(5.0, sample.get(1), 0.0);
+		assertFalse(topic.readIfNewer(sample));
+	}
+
+	@Test(timeout=10000)
+	public void testNoTornReads() throws InterruptedException {
+		final ConflatingTopic topic = new ConflatingTopic(3);
+		final int samples = 1000000;
+		Thread writer = new Thread(() -> {
+			for (int i = 1; i <= samples; i++) {
+				topic.publish(i, i, i, i);
+			}
+		});
+		writer.start();
+		ConflatingTopic.Sample sample = new ConflatingTopic.Sample(3);
+		long last = 0;
+		while (last < samples) {
+			if (topic.readIfNewer(sample)) {
+				assertTrue(sample.getSequence() > last);
+				last = sample.getSequence();
+				assertEquals(sample.get(0), sample.get(1), 0.0);
+				assertEquals(sample.get(1), sample.get(2), 0.0);
+				assertEquals((long) sample.get(0), sample.getTimestamp());
+			}
+		}
+		writer.join();
+	}
+}
@@ -0,0 +1,105 @@
+package com.onyx.common.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.AclMessageCodec;
+import com.onyx.common.messaging.AclPriority;
+import com.onyx.common.messaging.ActionId;
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.common.messaging.MessageType;
+
+public class MappedRingTest {
+
+	@Test
+	public void testMessagesCrossTheRing() throws Exception {
+		File file = File.createTempFile("onyx", ".ring");
+		file.deleteOnExit();
+		MappedRing writer = MappedRing.create(file, 4, 128);
+		MappedRing reader = MappedRing.open(file, false);
+		AclMessage sent = new AclMessage(MessageType.SEND, ActionId.ORIENT);
+		sent.setSender(DeviceId.GYRO_MAG_ACC);
+		sent.setReciever(DeviceId.BLACKBOARD);
+		sent.setPriority(AclPriority.HIGH);
+		sent.setVector(1, 2, 3);
+		sent.setContent("attitude");
+		sent.setCorrelationId(7);
+		AclMessageCodec.encode(sent, writer.claim());
+		assertEquals(0, writer.commit());
+		ByteBuffer record = ByteBuffer.allocate(reader.getMaxRecordSize());
+		assertEquals(0, reader.poll(record));
+		AclMessage received = new AclMessage(AclMessageCodec.getMessageType(record),
+				AclMessageCodec.getActionId(record));
+		AclMessageCodec.decode(record, received);
+		assertEquals(sent, received);
+		assertEquals(7, received.getCorrelationId());
+		assertEquals(-1, reader.poll(record));
+	}
+
+	@Test
+	public void testOverrunReaderSkipsToOldest() throws Exception {
+		File file = File.createTempFile("onyx", ".ring");
+		file.deleteOnExit();
+		MappedRing writer = MappedRing.create(file, 4, 32);
+		MappedRing reader = MappedRing.open(file, false);
+		for (int i = 0; i < 10; i++) {
+			writer.claim().putInt(i);
+			writer.commit();
+		}
+		ByteBuffer record = ByteBuffer.allocate(reader.getMaxRecordSize());
+		assertEquals(6, reader.poll(record));
+		assertEquals(6, record.getInt());
+		assertEquals(6, reader.getLost());
+		MappedRing late = MappedRing.open(file, true);
+		late.claim().putInt(10);
+		assertEquals(10, late.commit());
+		long last = -1;
+		for (long s = reader.poll(record); s >= 0; s = reader.poll(record)) {
+			last = s;
+		}
+		assertEquals(10, last);
+	}
+
+	@Test
+	public void testInvalidFilesAreRejected() throws Exception {
+		File file = File.createTempFile("onyx", ".ring");
+		file.deleteOnExit();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.write(new byte[] {0x4f, 0x4e});
+		}
+		assertRejected(file);
+		MappedRing.create(file, 4, 32);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 1);
+		}
+		assertRejected(file);
+		MappedRing.create(file, 4, 32);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(4);
+			raf.writeInt(3);
+		}
+		assertRejected(file);
+		MappedRing.create(file, 4, 32);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(8);
+			raf.writeInt(8);
+		}
+		assertRejected(file);
+	}
+
+	private static void assertRejected(final File file) throws Exception {
+		try {
+			MappedRing.open(file, false);
+			fail("Opened an invalid ring file");
+		} catch (IllegalArgumentException e1) {
+			// Expected.
+		}
+	}
+}
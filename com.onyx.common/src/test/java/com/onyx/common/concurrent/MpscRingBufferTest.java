@@ -0,0 +1,96 @@
+package com.onyx.common.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class MpscRingBufferTest {
+
+	@Test
+	public void testCapacityRoundsUp() {
+		assertEquals(2, new MpscRingBuffer<Integer>(1).capacity());
+		assertEquals(32, new MpscRingBuffer<Integer>(32).capacity());
+		assertEquals(64, new MpscRingBuffer<Integer>(33).capacity());
+	}
+
+	@Test
+	public void testSmallestRingDoesNotOverwrite() {
+		MpscRingBuffer<Integer> ring = new MpscRingBuffer<Integer>(1);
+		assertTrue(ring.offer(1));
+		assertTrue(ring.offer(2));
+		assertFalse(ring.offer(3));
+		assertEquals(Integer.valueOf(1), ring.poll());
+		assertEquals(Integer.valueOf(2), ring.poll());
+		assertNull(ring.poll());
+	}
+
+	@Test
+	public void testOfferPollWrapsAround() {
+		MpscRingBuffer<Integer> ring = new MpscRingBuffer<Integer>(4);
+		assertNull(ring.poll());
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 4; i++) {
+				assertTrue(ring.offer(i));
+			}
+			assertFalse(ring.offer(4));
+			assertEquals(4, ring.size());
+			for (int i = 0; i < 4; i++) {
+				assertEquals(Integer.valueOf(i), ring.poll());
+			}
+			assertNull(ring.poll());
+			assertTrue(ring.isEmpty());
+		}
+	}
+
+	@Test(timeout=10000)
+	public void testConcurrentProducers() throws InterruptedException {
+		final int producers = 4;
+		final int perProducer = 100000;
+		final MpscRingBuffer<Integer> ring = new MpscRingBuffer<Integer>(64);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int p = 0; p < producers; p++) {
+			final int base = p * perProducer;
+			Thread t = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < perProducer; i++) {
+					while (!ring.offer(base + i)) {
+						Thread.yield();
+					}
+				}
+			});
+			t.start();
+			threads.add(t);
+		}
+		start.countDown();
+		int[] last = new int[producers];
+		Arrays.fill(last, -1);
+		List<Integer> batch = new ArrayList<Integer>();
+		int received = 0;
+		while (received < producers * perProducer) {
+			batch.clear();
+			received += ring.drainTo(batch);
+			for (Integer v : batch) {
+				int p = v / perProducer;
+				assertTrue(v % perProducer > last[p]);
+				last[p] = v % perProducer;
+			}
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertNull(ring.poll());
+	}
+}
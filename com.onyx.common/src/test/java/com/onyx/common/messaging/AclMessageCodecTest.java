@@ -0,0 +1,115 @@
+package com.onyx.common.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class AclMessageCodecTest {
+
+	@Test
+	public void testContentIsTruncatedToTheBuffer() {
+		AclMessage sent = message(ActionId.DISPLAY);
+		sent.setContent("0123456789");
+		ByteBuffer buf = ByteBuffer.allocate(AclMessageCodec.HEADER_SIZE + 4);
+		AclMessageCodec.encode(sent, buf);
+		buf.flip();
+		AclMessage received = decode(buf);
+		assertEquals("0123", received.getContent());
+		assertEquals(0, buf.remaining());
+	}
+
+	@Test
+	public void testTruncationKeepsCharactersWhole() {
+		AclMessage sent = message(ActionId.DISPLAY);
+		sent.setContent("a\u00e9\u20ac");
+		ByteBuffer buf = ByteBuffer.allocate(AclMessageCodec.HEADER_SIZE + 5);
+		AclMessageCodec.encode(sent, buf);
+		buf.flip();
+		assertEquals("a\u00e9", decode(buf).getContent());
+	}
+
+	@Test
+	public void testUnsupportedVectorLengthIsRejected() {
+		ByteBuffer buf = ByteBuffer.allocate(64);
+		AclMessageCodec.encode(message(ActionId.ORIENT), buf);
+		buf.flip();
+		buf.put(5, (byte) 2);
+		try {
+			AclMessageCodec.decode(buf, new AclMessage(MessageType.SEND, ActionId.DISPLAY));
+			fail("Decoded a two element vector");
+		} catch (IllegalArgumentException e1) {
+			assertEquals(0, buf.position());
+		}
+	}
+
+	@Test
+	public void testNullAndEmptyContent() {
+		ByteBuffer buf = ByteBuffer.allocate(64);
+		AclMessage sent = message(ActionId.DISPLAY);
+		sent.setContent(null);
+		AclMessageCodec.encode(sent, buf);
+		sent.setContent("");
+		AclMessageCodec.encode(sent, buf);
+		buf.flip();
+		assertNull(decode(buf).getContent());
+		assertEquals("", decode(buf).getContent());
+	}
+
+	@Test
+	public void testTruncatedRecordIsRejected() {
+		AclMessage sent = message(ActionId.ORIENT);
+		sent.setVector(1, 2, 3);
+		sent.setContent("attitude");
+		ByteBuffer buf = ByteBuffer.allocate(128);
+		AclMessageCodec.encode(sent, buf);
+		buf.flip();
+		buf.limit(buf.limit() - 1);
+		AclMessage received = new AclMessage(MessageType.SEND, ActionId.DISPLAY);
+		try {
+			AclMessageCodec.decode(buf, received);
+			fail("Decoded a truncated record");
+		} catch (IllegalArgumentException e1) {
+			assertEquals(0, buf.position());
+			assertEquals(ActionId.DISPLAY, received.getActionId());
+		}
+	}
+
+	@Test
+	public void testOutOfRangeOrdinalsAreRejected() {
+		for (int i = 0; i < 5; i++) {
+			ByteBuffer buf = ByteBuffer.allocate(64);
+			AclMessageCodec.encode(message(ActionId.ORIENT), buf);
+			buf.flip();
+			buf.put(i, (byte) 120);
+			try {
+				if (i == 0) {
+					AclMessageCodec.getMessageType(buf);
+				} else {
+					AclMessageCodec.decode(buf, new AclMessage(MessageType.SEND, ActionId.DISPLAY));
+				}
+				fail("Ordinal " + i);
+			} catch (IllegalArgumentException e1) {
+				assertEquals(0, buf.position());
+			}
+		}
+	}
+
+	private static AclMessage message(final ActionId action) {
+		AclMessage msg = new AclMessage(MessageType.SEND, action);
+		msg.setSender(DeviceId.GYRO_MAG_ACC);
+		msg.setReciever(DeviceId.BLACKBOARD);
+		msg.setPriority(AclPriority.HIGH);
+		return msg;
+	}
+
+	private static AclMessage decode(final ByteBuffer buf) {
+		AclMessage msg = new AclMessage(AclMessageCodec.getMessageType(buf),
+				AclMessageCodec.getActionId(buf));
+		AclMessageCodec.decode(buf, msg);
+		return msg;
+	}
+}
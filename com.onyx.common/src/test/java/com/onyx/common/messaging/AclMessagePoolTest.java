@@ -0,0 +1,81 @@
+package com.onyx.common.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AclMessagePoolTest {
+
+	@Test
+	public void testReleaseRecycles() {
+		AclMessagePool pool = new AclMessagePool(2);
+		pool.acquire(MessageType.SEND, ActionId.GYRO);
+		AclMessage m = pool.acquire(MessageType.SEND, ActionId.GYRO);
+		m.setContent("1:2:3");
+		m.setSender(DeviceId.GYRO_MAG_ACC);
+		m.setReciever(DeviceId.PID);
+		assertTrue(m.isValid());
+		m.release();
+		AclMessage n = pool.acquire(MessageType.REPLY, ActionId.DISPLAY);
+		assertSame(m, n);
+		assertNull(n.getContent());
+		assertNull(n.getSender());
+		assertEquals(ActionId.DISPLAY, n.getActionId());
+		assertEquals(0, pool.getAllocated());
+	}
+
+	@Test
+	public void testRetainDefersRecycle() {
+		AclMessagePool pool = new AclMessagePool(2);
+		AclMessage m = pool.acquire(MessageType.SEND, ActionId.GYRO);
+		m.retain();
+		m.release();
+		assertEquals(1, pool.available());
+		m.release();
+		assertEquals(2, pool.available());
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testDoubleRelease() {
+		AclMessagePool pool = new AclMessagePool(2);
+		AclMessage m = pool.acquire(MessageType.SEND, ActionId.GYRO);
+		m.release();
+		m.release();
+	}
+
+	@Test
+	public void testEmptyPoolAllocates() {
+		AclMessagePool pool = new AclMessagePool(2);
+		pool.acquire(MessageType.SEND, ActionId.GYRO);
+		pool.acquire(MessageType.SEND, ActionId.GYRO);
+		AclMessage m = pool.acquire(MessageType.SEND, ActionId.GYRO);
+		assertTrue(m.isPooled());
+		assertEquals(1, pool.getAllocated());
+	}
+
+	@Test
+	public void testVectorPayload() {
+		AclMessagePool pool = new AclMessagePool(1);
+		AclMessage m = pool.acquire(MessageType.SEND, ActionId.ORIENT);
+		m.setVector(1.5, -2.5, 3.5);
+		AclMessage copy = new AclMessage(MessageType.SEND, ActionId.ORIENT).copyFrom(m);
+		double[] out = new double[3];
+		assertEquals(3, copy.getVector(out));
+		assertEquals(-2.5, out[1], 0.0);
+		assertEquals(3.5, copy.getVector(2), 0.0);
+		m.release();
+		assertFalse(pool.acquire(MessageType.SEND, ActionId.ORIENT).hasVector());
+	}
+
+	@Test
+	public void testUuidIsLazy() {
+		AclMessage m = new AclMessage(MessageType.SEND, ActionId.GYRO);
+		assertFalse(m.hasUuid());
+		assertSame(m.getUuid(), m.getUuid());
+		assertTrue(m.hasUuid());
+	}
+}
@@ -18,7 +18,10 @@ import com.onyx.common.messaging.DeviceId;
 import com.onyx.common.utils.Constants;
 import com.onyx.common.utils.ExceptionUtils;
 import com.onyx.quadcopter.devices.Device;
+import com.onyx.quadcopter.devices.OverflowPolicy;
+import com.onyx.quadcopter.devices.RateGroup;
 import com.onyx.quadcopter.exceptions.OnyxException;
+import com.onyx.quadcopter.main.ThreadBudget;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
@@ -52,12 +55,14 @@ public class OnyxServer extends Device implements Runnable {
   /**
    * Boss group.
    */
-  final EventLoopGroup bossGroup = new NioEventLoopGroup(Constants.NUM_NIO_THREADS);
+  final EventLoopGroup bossGroup = new NioEventLoopGroup(ThreadBudget.NETWORK_BOSS,
+      ThreadBudget.newThreadFactory("onyx-nio-boss-", true));
 
   /**
    * Worker group.
    */
-  final EventLoopGroup workerGroup = new NioEventLoopGroup();
+  final EventLoopGroup workerGroup = new NioEventLoopGroup(ThreadBudget.NETWORK_WORKERS,
+      ThreadBudget.newThreadFactory("onyx-nio-worker-", true));
 
   /**
    * Communication handler.
@@ -160,6 +165,16 @@ public class OnyxServer extends Device implements Runnable {
   protected void alternate() {
   }
 
+  @Override
+  public OverflowPolicy getOverflowPolicy() {
+    return OverflowPolicy.DROP_OLDEST;
+  }
+
+  @Override
+  public RateGroup getRateGroup() {
+    return RateGroup.COMMS;
+  }
+
   @Override
   public boolean selfTest() {
     return true;// TODO complete NettyCommServer selfTest.
@@ -2,6 +2,8 @@ package com.onyx.quadcopter.communication;
 
 import com.onyx.common.commands.Command;
 import com.onyx.common.commands.CommandType;
+import com.onyx.common.commands.SendDataCommand;
+import com.onyx.common.utils.Constants;
 
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler.Sharable;
@@ -17,6 +19,9 @@ import io.netty.util.concurrent.GlobalEventExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Handles a server-side channel.
  */
@@ -64,7 +69,9 @@ public class OnyxServerChannelHandler extends SimpleChannelInboundHandler<Comman
    *    the string data to send.
    */
   public synchronized void addData(final Command msg) {
-    channels.parallelStream().forEach(e -> e.writeAndFlush(msg));
+    for (final Channel c : channels) {
+      c.writeAndFlush(msg);
+    }
   }
 
   @Override
@@ -73,7 +80,19 @@ public class OnyxServerChannelHandler extends SimpleChannelInboundHandler<Comman
       ctx.close();
       return;
     }
-    server.sendMessage(msg.getMessage());
+    if (msg.expectsReply()) {
+      final UUID commandId = msg.getCommandId();
+      server.ask(msg.getMessage(), Constants.REPLY_TIMEOUT, TimeUnit.MILLISECONDS)
+          .whenComplete((reply, t1) -> {
+            if (reply != null) {
+              addData(new SendDataCommand(reply.getSender(), reply.getContent(), commandId));
+            } else {
+              LOGGER.debug("No reply to " + msg + ": " + t1.getMessage());
+            }
+          });
+    } else {
+      server.sendMessage(msg.getMessage());
+    }
     LOGGER.debug(msg.toString());
     lastCmd = msg;
   }
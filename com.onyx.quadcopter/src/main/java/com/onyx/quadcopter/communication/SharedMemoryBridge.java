@@ -0,0 +1,236 @@
+package com.onyx.quadcopter.communication;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.onyx.common.concurrent.MappedRing;
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.AclMessageCodec;
+import com.onyx.common.messaging.ActionId;
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.common.utils.Constants;
+import com.onyx.common.utils.ExceptionUtils;
+import com.onyx.quadcopter.devices.Blackboard;
+import com.onyx.quadcopter.devices.Device;
+import com.onyx.quadcopter.devices.OverflowPolicy;
+
+/**
+ * <p>Shared memory bridge between the blackboard and other processes on
+ * this board.</p>
+ * <p>The bridge subscribes to the {@link Constants#SHM_TOPICS} and writes
+ * every message it receives, including replies to requests it posted, to
+ * the outbound {@link MappedRing}. Messages another process writes to the
+ * inbound ring are posted to the blackboard on every tick with this bridge as
+ * their sender, so replies find their way back. Messages addressed to
+ * {@link DeviceId#BLACKBOARD} are published to the subscribers of their
+ * action. Records are encoded with the {@link AclMessageCodec}.</p>
+ * <p>The outbound ring is created afresh on start. An inbound ring another
+ * process already created is opened as it is, so records it wrote before
+ * the bridge started are not lost, and it is only created when missing.</p>
+ * <p>Neither ring blocks, a process reading too slowly loses the oldest
+ * records rather than delaying the flight stack.</p>
+ *
+ * @author fred
+ *
+ */
+public class SharedMemoryBridge extends Device {
+
+  /**
+   * Logger.
+   */
+  public static final Logger LOGGER = LoggerFactory.getLogger(SharedMemoryBridge.class);
+
+  /**
+   * File name of the ring written by the bridge.
+   */
+  public static final String OUTBOUND_FILE = "onyx-out.ring";
+
+  /**
+   * File name of the ring read by the bridge.
+   */
+  public static final String INBOUND_FILE = "onyx-in.ring";
+
+  /**
+   * Ring written by this bridge.
+   */
+  private MappedRing outbound;
+
+  /**
+   * Ring read by this bridge.
+   */
+  private MappedRing inbound;
+
+  /**
+   * Copy of the inbound record being decoded.
+   */
+  private ByteBuffer record;
+
+  /**
+   * The subscribed topics.
+   */
+  private final List<ActionId> topics = new ArrayList<ActionId>();
+
+  /**
+   * Number of messages written to the outbound ring.
+   */
+  private volatile long forwarded;
+
+  /**
+   * Number of messages read from the inbound ring.
+   */
+  private volatile long received;
+
+  /**
+   * Number of inbound records which could not be decoded.
+   */
+  private volatile long rejected;
+
+  /**
+   * Create a new shared memory bridge.
+   */
+  public SharedMemoryBridge() {
+    super(DeviceId.SHM_BRIDGE);
+  }
+
+  @Override
+  protected void init() {
+    final File dir = new File(Constants.SHM_DIR);
+    try {
+      outbound = MappedRing.create(new File(dir, OUTBOUND_FILE), Constants.SHM_SLOTS,
+          Constants.SHM_SLOT_SIZE);
+      inbound = openInbound(new File(dir, INBOUND_FILE));
+      record = ByteBuffer.allocate(inbound.getMaxRecordSize());
+    } catch (IOException | IllegalArgumentException e1) {
+      ExceptionUtils.logError(getClass(), e1);
+      outbound = null;
+      inbound = null;
+      return;
+    }
+    for (final String name : Constants.SHM_TOPICS.split(",")) {
+      if (name.trim().isEmpty()) {
+        continue;
+      }
+      try {
+        final ActionId topic = ActionId.valueOf(name.trim());
+        subscribe(topic);
+        topics.add(topic);
+      } catch (IllegalArgumentException e1) {
+        LOGGER.warn("Unknown shared memory topic: " + name + ".");
+      }
+    }
+    LOGGER.info("Shared memory bridge in " + dir + " forwarding " + topics + ".");
+  }
+
+  /**
+   * Open the inbound ring, creating it only if no other process has.
+   *
+   * @param file the inbound ring file.
+   * @return the ring, positioned on the oldest record held.
+   * @throws IOException if the file can not be mapped.
+   */
+  private static MappedRing openInbound(final File file) throws IOException {
+    if (file.length() > 0) {
+      return MappedRing.open(file, false);
+    }
+    return MappedRing.create(file, Constants.SHM_SLOTS, Constants.SHM_SLOT_SIZE);
+  }
+
+  @Override
+  protected void update() {
+    super.update();
+    receive();
+  }
+
+  @Override
+  public void update(final AclMessage msg) {
+    if (outbound != null) {
+      AclMessageCodec.encode(msg, outbound.claim());
+      outbound.commit();
+      forwarded++;
+    }
+  }
+
+  /**
+   * Post every record written to the inbound ring since the last tick.
+   */
+  private void receive() {
+    if (inbound == null) {
+      return;
+    }
+    final Blackboard blackboard = getController().getBlackboard();
+    while (inbound.poll(record) >= 0) {
+      final AclMessage m;
+      try {
+        m = blackboard.acquire(AclMessageCodec.getMessageType(record),
+            AclMessageCodec.getActionId(record));
+      } catch (RuntimeException e1) {
+        rejected++;
+        continue;
+      }
+      try {
+        AclMessageCodec.decode(record, m);
+      } catch (RuntimeException e1) {
+        m.release();
+        rejected++;
+        continue;
+      }
+      m.setSender(getId());
+      received++;
+      if (m.getReciever() == DeviceId.BLACKBOARD) {
+        blackboard.publish(m);
+      } else {
+        blackboard.addMessage(m);
+      }
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    for (final ActionId topic : topics) {
+      unsubscribe(topic);
+    }
+    topics.clear();
+  }
+
+  @Override
+  protected void alternate() {
+    if (inbound != null) {
+      LOGGER.debug("Shared memory bridge forwarded=" + forwarded + " received=" + received
+          + " rejected=" + rejected + " lost=" + inbound.getLost());
+    }
+  }
+
+  @Override
+  public OverflowPolicy getOverflowPolicy() {
+    return OverflowPolicy.DROP_OLDEST;
+  }
+
+  @Override
+  public boolean selfTest() {
+    return true;
+  }
+
+  /**
+   * Get the number of messages written to the outbound ring.
+   *
+   * @return the number of forwarded messages.
+   */
+  public long getForwarded() {
+    return forwarded;
+  }
+
+  /**
+   * Get the number of messages read from the inbound ring.
+   *
+   * @return the number of received messages.
+   */
+  public long getReceived() {
+    return received;
+  }
+}
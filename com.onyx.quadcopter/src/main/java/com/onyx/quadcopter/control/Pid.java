@@ -1,15 +1,31 @@
 package com.onyx.quadcopter.control;
 
 import com.onyx.common.utils.Constants;
+import com.onyx.quadcopter.utils.Clock;
+import com.onyx.quadcopter.utils.SystemClock;
 
 /**
- * Represents a PID along one axis.
+ * <p>Represents a PID along one axis.</p>
+ * <p>The PID never blocks: a new output is computed at most once per sample
+ * period, a call made before the next sample is due returns the last output.
+ * The integral and derivative terms are scaled by the measured time between
+ * samples, so a late sample does not distort the output. After a gap of
+ * more than {@link #MAX_GAP_PERIODS} sample periods, or when auto correct is
+ * turned back on, the PID starts over from the next sample instead: the
+ * integral is kept but not grown over the gap and the derivative does not
+ * kick. A PID is owned by the thread computing it.</p>
  * 
  * @author fred
  *
  */
 public class Pid {
 
+  /**
+   * Largest gap between samples, in sample periods, still scaled rather
+   * than starting over.
+   */
+  public static final int MAX_GAP_PERIODS = 4;
+
   private double mpGain;
   private double miGain;
   private double mdGain;
@@ -19,10 +35,24 @@ public class Pid {
    */
   private double setPoint = 0.0;
 
-  private double lastTime;
+  /**
+   * Timestamp of the last sample in nanoseconds.
+   */
+  private long lastTime;
+
+  /**
+   * True once the first sample has been taken.
+   */
+  private boolean sampled;
+
   private double miTerm;
   private double sampleRate;
 
+  /**
+   * The output computed for the last sample.
+   */
+  private double lastOutput;
+
   /**
    * True for auto correct enable.
    */
@@ -40,6 +70,11 @@ public class Pid {
    */
   private int defaultSample = 100000;
 
+  /**
+   * The clock samples are timed with.
+   */
+  private final Clock clock;
+
   /**
    * Create a new PID for one axis.
    * 
@@ -49,14 +84,31 @@ public class Pid {
    *        the i gain for the PID.
    * @param mdGain
    *        the d gain for the PID.
+   * @param clock
+   *        the clock samples are timed with.
    */
-  public Pid(double mpGain, double miGain, double mdGain) {
+  public Pid(double mpGain, double miGain, double mdGain, final Clock clock) {
     this.mpGain = mpGain;
     this.miGain = miGain;
     this.mdGain = mdGain;
+    this.clock = clock;
     this.setSamplePeriod(defaultSample);
   }
 
+  /**
+   * Create a new PID for one axis timed with the system clock.
+   * 
+   * @param mpGain
+   *        the p gain for the PID.
+   * @param miGain
+   *        the i gain for the PID.
+   * @param mdGain
+   *        the d gain for the PID.
+   */
+  public Pid(double mpGain, double miGain, double mdGain) {
+    this(mpGain, miGain, mdGain, SystemClock.INSTANCE);
+  }
+
   /**
    * Change the setpoint value for this PID.
    * 
@@ -67,52 +119,87 @@ public class Pid {
   }
 
   /**
-   * Compute the output of this PID.
+   * Compute the output of this PID for an input sampled now.
    * 
    * @param input
    *    the input to the PID.
    * @return the output of the PID.
    */
-  public synchronized double compute(double input) {
-    double output = 0;
+  public double compute(double input) {
+    return compute(input, clock.nanoTime());
+  }
+
+  /**
+   * Compute the output of this PID for an input sampled at the given time.
+   * If less than the sample period has passed since the last sample the
+   * input is ignored and the last output is returned.
+   * 
+   * @param input
+   *    the input to the PID.
+   * @param timestampNanos
+   *    the time the input was sampled in nanoseconds.
+   * @return the output of the PID.
+   */
+  public double compute(final double input, final long timestampNanos) {
     if (!auto) {
-      return output;
+      return 0;
     }
-    long now = System.nanoTime();
-    
-    //Time difference from last compute.
-    double deltaTime = (double) (now - lastTime);
-
-    if (deltaTime >= sampleRate) {
-      double error = setPoint - input;
-      miTerm += (miGain * error);
-      if (miTerm > outMax) {
-        miTerm = outMax;
-      } else if (miTerm < outMin) {
-        miTerm = outMin;
-      }
-      double mdInput = (input - lastInput);
-
-      output = mpGain * error + miTerm - mdGain * mdInput;
-      if (output > outMax) {
-        output = outMax;
-      } else if (output < outMin) {
-        output = outMin;
-      }
-
+    final long deltaTime = timestampNanos - lastTime;
+    if (!sampled || deltaTime > MAX_GAP_PERIODS * sampleRate) {
+      sampled = true;
+      lastTime = timestampNanos;
       lastInput = input;
-      lastTime = now;
-    } else {
-    	try {
-			Thread.sleep((long) ((sampleRate - deltaTime) / 1000_000L));
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-    	return compute(input);
+      return step(input, sampleRate);
+    }
+    if (deltaTime < sampleRate) {
+      return lastOutput;
+    }
+    lastTime = timestampNanos;
+    return step(input, deltaTime);
+  }
+
+  /**
+   * Take a sample, the integral and derivative terms are scaled by the
+   * time since the last sample relative to the sample period.
+   * 
+   * @param input
+   *    the input to the PID.
+   * @param deltaTime
+   *    the time since the last sample in nanoseconds.
+   * @return the output of the PID.
+   */
+  private double step(final double input, final double deltaTime) {
+    final double ratio = deltaTime / sampleRate;
+    final double error = setPoint - input;
+    miTerm += miGain * error * ratio;
+    if (miTerm > outMax) {
+      miTerm = outMax;
+    } else if (miTerm < outMin) {
+      miTerm = outMin;
+    }
+    final double mdInput = (input - lastInput) / ratio;
+
+    double output = mpGain * error + miTerm - mdGain * mdInput;
+    if (output > outMax) {
+      output = outMax;
+    } else if (output < outMin) {
+      output = outMin;
     }
+
+    lastInput = input;
+    lastOutput = output;
     return output;
   }
 
+  /**
+   * Get the output computed for the last sample.
+   * 
+   * @return the last output of the PID.
+   */
+  public double getLastOutput() {
+    return lastOutput;
+  }
+
   /**
    * Set Tunings.
    * 
@@ -144,11 +231,14 @@ public class Pid {
   }
 
   /**
-   * Set auto correct on.
+   * Set auto correct on. Turning it back on starts over from the next sample.
    * 
    * @param auto the value of autocorrect.
    */
   public void setAuto(boolean auto) {
+    if (auto && !this.auto) {
+      sampled = false;
+    }
     this.auto = auto;
   }
 
@@ -1,11 +1,18 @@
 package com.onyx.quadcopter.control;
 
+import com.onyx.common.concurrent.ConflatingTopic;
 import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.AclPriority;
 import com.onyx.common.messaging.ActionId;
 import com.onyx.common.messaging.DeviceId;
 import com.onyx.common.utils.Constants;
 
+import com.onyx.quadcopter.devices.Blackboard;
 import com.onyx.quadcopter.devices.Device;
+import com.onyx.quadcopter.devices.MessageBatch;
+import com.onyx.quadcopter.devices.MessageTracer;
+import com.onyx.quadcopter.devices.RateGroup;
+import com.onyx.quadcopter.devices.Stage;
 
 /**
  * A simple PID Controller.
@@ -37,6 +44,14 @@ public class PidController extends Device {
   private double[] orientation = new double[3];
   private double[] gyro = new double[3];
 
+  /**
+   * Latest gyro and orientation samples read from their topics.
+   */
+  private final ConflatingTopic.Sample gyroSample =
+      new ConflatingTopic.Sample(AclMessage.VECTOR_SIZE);
+  private final ConflatingTopic.Sample orientationSample =
+      new ConflatingTopic.Sample(AclMessage.VECTOR_SIZE);
+
   /**
    * Computed orientation.
    */
@@ -52,6 +67,16 @@ public class PidController extends Device {
   private double esc4;
   private boolean started;
 
+  /**
+   * Pulse widths last shown on the display.
+   */
+  private final double[] displayedEsc = {Double.NaN, Double.NaN, Double.NaN, Double.NaN};
+
+  /**
+   * Pulse widths of the four motors, published together.
+   */
+  private MessageBatch motors;
+
   /**
    * PID Controller ctor.
    */
@@ -80,10 +105,12 @@ public class PidController extends Device {
   
   @Override
   protected void init() {
-    mxPid = new Pid(GAIN_P_X, GAIN_I_X, GAIN_D_X);
-    myPid = new Pid(GAIN_P_Y, GAIN_I_Y, GAIN_D_Y);
-    mzPid = new Pid(GAIN_P_Z, GAIN_I_Z, GAIN_D_Z);
-    mxPid.setSamplePeriod((Constants.CONTROLLER_PERIOD * 1000));
+    mxPid = new Pid(GAIN_P_X, GAIN_I_X, GAIN_D_X, getClock());
+    myPid = new Pid(GAIN_P_Y, GAIN_I_Y, GAIN_D_Y, getClock());
+    mzPid = new Pid(GAIN_P_Z, GAIN_I_Z, GAIN_D_Z, getClock());
+    mxPid.setSamplePeriod(Constants.CONTROL_LOOP_PERIOD_NANOS);
+    myPid.setSamplePeriod(Constants.CONTROL_LOOP_PERIOD_NANOS);
+    mzPid.setSamplePeriod(Constants.CONTROL_LOOP_PERIOD_NANOS);
     mxPid.setPoint(0);
     myPid.setPoint(0);
     mzPid.setPoint(0);
@@ -114,6 +141,16 @@ public class PidController extends Device {
 	  LOGGER.debug("Throttle: " + throttle);
   }
 
+  @Override
+  public Stage getStage() {
+    return Stage.CONTROL;
+  }
+
+  @Override
+  public RateGroup getRateGroup() {
+    return RateGroup.CONTROL;
+  }
+
   @Override
   public boolean selfTest() {
     return false;
@@ -122,12 +159,22 @@ public class PidController extends Device {
   @Override
   protected void update() {
     super.update();
+    final Blackboard blackboard = getController().getBlackboard();
+    if (blackboard.getTopic(ActionId.GYRO).readIfNewer(gyroSample)) {
+      gyroSample.get(gyro);
+      traceSampleAge(blackboard.getTracer(), ActionId.GYRO, gyroSample);
+    }
+    if (blackboard.getTopic(ActionId.ORIENT).readIfNewer(orientationSample)) {
+      orientationSample.get(orientation);
+      traceSampleAge(blackboard.getTracer(), ActionId.ORIENT, orientationSample);
+    }
+    final long sampled = gyroSample.getTimestamp();
     computedGyro[0] =
-        mxPid.compute(gyro[0] / Constants.GYRO_SCALE);
+        mxPid.compute(gyro[0] / Constants.GYRO_SCALE, sampled);
     computedGyro[1] =
-        myPid.compute(gyro[1] / Constants.GYRO_SCALE);
+        myPid.compute(gyro[1] / Constants.GYRO_SCALE, sampled);
     computedGyro[2] =
-        mzPid.compute(gyro[2] / Constants.GYRO_SCALE);
+        mzPid.compute(gyro[2] / Constants.GYRO_SCALE, sampled);
 
     if (orientation[0] >= Constants.MAX_FLIGHT_INCLINE) {
       computedGyro[0] = 0;
@@ -161,22 +208,47 @@ public class PidController extends Device {
       esc4 = Constants.MOTOR_MIN_MS;
     }
 
-    // Display the Computed ESC Speeds.
-    setDisplay("ESC1: " + esc1 + System.lineSeparator() + "ESC2: " + esc2 + System.lineSeparator()
-        + "ESC3: " + esc3 + System.lineSeparator() + "ESC4: " + esc4);
+    // Display the Computed ESC Speeds when they change, at most at the display rate.
+    if ((esc1 != displayedEsc[0] || esc2 != displayedEsc[1] || esc3 != displayedEsc[2]
+        || esc4 != displayedEsc[3]) && claimStatusDisplay() == 0) {
+      displayedEsc[0] = esc1;
+      displayedEsc[1] = esc2;
+      displayedEsc[2] = esc3;
+      displayedEsc[3] = esc4;
+      setDisplay("ESC1: " + esc1 + System.lineSeparator() + "ESC2: " + esc2
+          + System.lineSeparator() + "ESC3: " + esc3 + System.lineSeparator() + "ESC4: " + esc4);
+    }
 
     // Only update motor speed if there is a noticeable change in value.
+    if (motors == null) {
+      motors = newBatch(4);
+    }
     if (Math.abs(prev_esc1 - esc1) > 0) {
-      sendMessageHigh(DeviceId.MOTOR1, "", esc1, ActionId.CHANGE_PULSE_WIDTH);
+      motors.add(DeviceId.MOTOR1, "", esc1, ActionId.CHANGE_PULSE_WIDTH, AclPriority.HIGH);
     }
     if (Math.abs(prev_esc2 - esc2) > 0) {
-      sendMessageHigh(DeviceId.MOTOR2, "", esc2, ActionId.CHANGE_PULSE_WIDTH);
+      motors.add(DeviceId.MOTOR2, "", esc2, ActionId.CHANGE_PULSE_WIDTH, AclPriority.HIGH);
     }
     if (Math.abs(prev_esc3 - esc3) > 0) {
-      sendMessageHigh(DeviceId.MOTOR3, "", esc3, ActionId.CHANGE_PULSE_WIDTH);
+      motors.add(DeviceId.MOTOR3, "", esc3, ActionId.CHANGE_PULSE_WIDTH, AclPriority.HIGH);
     }
     if (Math.abs(prev_esc4 - esc4) > 0) {
-      sendMessageHigh(DeviceId.MOTOR4, "", esc4, ActionId.CHANGE_PULSE_WIDTH);
+      motors.add(DeviceId.MOTOR4, "", esc4, ActionId.CHANGE_PULSE_WIDTH, AclPriority.HIGH);
+    }
+    motors.publish();
+  }
+
+  /**
+   * Record the age of a topic sample if tracing is enabled.
+   *
+   * @param tracer the message tracer.
+   * @param topic the topic the sample was read from.
+   * @param sample the sample.
+   */
+  private void traceSampleAge(final MessageTracer tracer, final ActionId topic,
+      final ConflatingTopic.Sample sample) {
+    if (tracer.isEnabled()) {
+      tracer.recordSampleAge(topic, getClock().nanoTime() - sample.getTimestamp());
     }
   }
 
@@ -184,23 +256,21 @@ public class PidController extends Device {
   public void update(AclMessage msg) {
     switch (msg.getActionId()) {
       case GYRO:
-        String[] d0 = msg.getContent().split(":");
-        gyro[0] = Double.parseDouble(d0[0]);
-        gyro[1] = Double.parseDouble(d0[1]);
-        gyro[2] = Double.parseDouble(d0[2]);
+        msg.getVector(gyro);
         break;
       case ORIENT:
-        String[] d1 = msg.getContent().split(":");
-        orientation[0] = Double.parseDouble(d1[0]);
-        orientation[1] = Double.parseDouble(d1[1]);
-        orientation[2] = Double.parseDouble(d1[2]);
+        msg.getVector(orientation);
         break;
       case CONTROL:
-        String[] d2 = msg.getContent().split(",");
-        mxPid.setPoint(Double.parseDouble(d2[0]));
-        myPid.setPoint(Double.parseDouble(d2[1]));
-        mzPid.setPoint(Double.parseDouble(d2[2]));
-        throttle = Double.parseDouble(d2[3]);
+        if (msg.getVectorLength() < 4) {
+          LOGGER.warn("Ignored control message without setpoints and throttle from "
+              + msg.getSender() + ".");
+          break;
+        }
+        mxPid.setPoint(msg.getVector(0));
+        myPid.setPoint(msg.getVector(1));
+        mzPid.setPoint(msg.getVector(2));
+        throttle = msg.getVector(3);
         break;
       case START_MOTORS:
         // Start or stop motors.
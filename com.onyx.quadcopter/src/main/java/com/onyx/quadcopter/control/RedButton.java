@@ -6,6 +6,7 @@ import com.onyx.common.messaging.AclPriority;
 import com.onyx.common.messaging.ActionId;
 import com.onyx.common.messaging.DeviceId;
 import com.onyx.quadcopter.devices.Device;
+import com.onyx.quadcopter.devices.RateGroup;
 import com.pi4j.io.gpio.GpioPinDigitalInput;
 import com.pi4j.io.gpio.PinPullResistance;
 import com.pi4j.io.gpio.PinState;
@@ -84,6 +85,16 @@ public class RedButton extends Device implements GpioPinListenerDigital {
   @Override
   protected void alternate() {}
 
+  @Override
+  public boolean isEventDriven() {
+    return true;
+  }
+
+  @Override
+  public RateGroup getRateGroup() {
+    return RateGroup.COMMS;
+  }
+
   @Override
   public boolean selfTest() {
     return getController().getGpio().isState(PinState.HIGH, button);
@@ -93,11 +104,11 @@ public class RedButton extends Device implements GpioPinListenerDigital {
   public void handleGpioPinDigitalStateChangeEvent(GpioPinDigitalStateChangeEvent state) {
     LOGGER.debug("Button State: " + state.getState().getName());
     if (state.getState() == PinState.LOW) {
-      startTime = System.nanoTime();
+      startTime = getClock().nanoTime();
       LOGGER.debug("Button Pressed.");
     }
     if (state.getState() == PinState.HIGH && startTime > 0) {
-      holdDownTime = System.nanoTime() - startTime;
+      holdDownTime = getClock().nanoTime() - startTime;
       LOGGER.debug("Button Released. Held down for " + holdDownTime + "  nanoseconds.");
       handleActionSequence(holdDownTime);
       startTime = 0;
@@ -1,6 +1,11 @@
 package com.onyx.quadcopter.devices;
 
+import com.onyx.common.concurrent.ConflatingTopic;
+import com.onyx.common.concurrent.MpscRingBuffer;
 import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.AclMessagePool;
+import com.onyx.common.messaging.AclPriority;
+import com.onyx.common.messaging.ActionId;
 import com.onyx.common.messaging.DeviceId;
 import com.onyx.common.messaging.MessageType;
 import com.onyx.common.utils.Constants;
@@ -8,9 +13,9 @@ import com.onyx.common.utils.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 
 /**
@@ -18,6 +23,30 @@ import java.util.concurrent.PriorityBlockingQueue;
  * All devices share this class to communicate over.
  * (Similar to a classroom blackboard. Each device takes a turn with the chalk, writes a message and
  * passes the chalk to the next device in sequence.)
+ * <p>Each device has two preallocated {@link MpscRingBuffer}s indexed by
+ * its {@link DeviceId}, any thread may post to a ring while only the device
+ * owning the ring takes messages from it. Posting and draining never allocate
+ * or take a monitor, and polling an empty ring is a single volatile read.
+ * {@link AclPriority#HIGH} and {@link AclPriority#MAX} messages such as motor
+ * and safety commands go to the critical ring, everything else to the bulk
+ * ring, so display and telemetry traffic can never crowd them out. The
+ * critical ring is drained first, once drained messages are subject to the
+ * {@link OverflowPolicy} of the receiver's {@link Mailbox}.</p>
+ * <p>Messages are taken from the pool of this blackboard with
+ * {@link #acquire(MessageType, ActionId)}. Posting a message hands its
+ * reference to the blackboard, and draining hands it to the receiver which
+ * releases it once handled.</p>
+ * <p>Alongside the queued messages every {@link ActionId} has a
+ * {@link ConflatingTopic} holding only its latest sample, high rate sensor
+ * streams are published there so readers always act on the newest data.</p>
+ * <p>Devices may also subscribe to an {@link ActionId}. A message
+ * published with {@link #publish(AclMessage)} is posted by reference to the
+ * rings of every subscriber, each holding its own reference, so one message
+ * reaches any number of consumers without being copied. Published messages
+ * are shared and must not be modified by their receivers.</p>
+ * <p>Message latencies are traced by the {@link MessageTracer} of this
+ * blackboard while it is enabled. A {@link MessageTap} such as the
+ * {@link BlackboardJournal} may observe every accepted message.</p>
  *
  * @author fred
  *
@@ -29,41 +58,319 @@ public class Blackboard {
    */
   public static final Logger LOGGER = LoggerFactory.getLogger(Blackboard.class);
 
-  private ConcurrentMap<DeviceId, PriorityBlockingQueue<AclMessage>> blackboard;
+  /**
+   * Critical message rings indexed by receiver device id ordinal.
+   */
+  private final MpscRingBuffer<AclMessage>[] critical;
+
+  /**
+   * Bulk message rings indexed by receiver device id ordinal.
+   */
+  private final MpscRingBuffer<AclMessage>[] bulk;
+
+  /**
+   * Number of bulk messages dropped because the ring of the receiver was full.
+   */
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * Number of critical messages dropped because the ring of the receiver was full.
+   */
+  private final AtomicLong droppedCritical = new AtomicLong();
 
+  /**
+   * Last correlation id handed out.
+   */
+  private final AtomicLong correlationIds = new AtomicLong();
+
+  /**
+   * Pool of recyclable messages.
+   */
+  private final AclMessagePool pool = new AclMessagePool(Constants.MESSAGE_POOL_SIZE);
+
+  /**
+   * Message latency tracer.
+   */
+  private final MessageTracer tracer = new MessageTracer();
+
+  /**
+   * Latest value topics indexed by action id ordinal.
+   */
+  private final ConflatingTopic[] topics;
+
+  /**
+   * Subscribers indexed by action id ordinal, bit i is set while the device
+   * with ordinal i is subscribed.
+   */
+  private final AtomicLongArray subscribers = new AtomicLongArray(ActionId.values().length);
+
+  /**
+   * Observer of accepted messages, null if none.
+   */
+  private volatile MessageTap tap;
+
+  /**
+   * Create a new blackboard.
+   */
+  @SuppressWarnings("unchecked")
   public Blackboard() {
-    blackboard = new ConcurrentHashMap<DeviceId, PriorityBlockingQueue<AclMessage>>(
-        Constants.BLACKBOARD_SIZE);
+    final int buckets = DeviceId.values().length;
+    critical = new MpscRingBuffer[buckets];
+    bulk = new MpscRingBuffer[buckets];
+    for (int i = 0; i < buckets; i++) {
+      critical[i] = new MpscRingBuffer<AclMessage>(Constants.MAX_BLACKBOARD_BUCKET_SIZE);
+      bulk[i] = new MpscRingBuffer<AclMessage>(Constants.MAX_BLACKBOARD_BUCKET_SIZE);
+    }
+    topics = new ConflatingTopic[ActionId.values().length];
+    for (int i = 0; i < topics.length; i++) {
+      topics[i] = new ConflatingTopic(AclMessage.VECTOR_SIZE);
+    }
   }
 
   /**
    * Periodically update this Blackboard.
    */
   public void update() {
-    if (blackboard.size() >= Constants.BLACKBOARD_SIZE) {
-      LOGGER.debug("Clearing blackboard.");
-      blackboard.clear();
+    if (size() >= Constants.BLACKBOARD_SIZE) {
+      LOGGER.debug("Blackboard holds " + size() + " undelivered messages.");
     }
   }
 
   /**
-   * Add a message to the blackboard.
+   * Take a message from the pool of this blackboard.
+   *
+   * @param type the message type.
+   * @param id the action id.
+   * @return a message holding one reference.
+   */
+  public AclMessage acquire(final MessageType type, final ActionId id) {
+    return pool.acquire(type, id);
+  }
+
+  /**
+   * Get a new correlation id for a request, ids are never 0.
+   *
+   * @return the correlation id.
+   */
+  public long nextCorrelationId() {
+    return correlationIds.incrementAndGet();
+  }
+
+  /**
+   * Get the latest value topic of an action.
+   *
+   * @param id the action id.
+   * @return the topic.
+   */
+  public ConflatingTopic getTopic(final ActionId id) {
+    return topics[id.ordinal()];
+  }
+
+  /**
+   * Subscribe a device to the messages published for an action.
+   *
+   * @param id the action id.
+   * @param subscriber the device id of the subscriber.
+   */
+  public void subscribe(final ActionId id, final DeviceId subscriber) {
+    final long bit = 1L << subscriber.ordinal();
+    subscribers.accumulateAndGet(id.ordinal(), bit, (a, b) -> a | b);
+  }
+
+  /**
+   * Unsubscribe a device from the messages published for an action.
+   *
+   * @param id the action id.
+   * @param subscriber the device id of the subscriber.
+   */
+  public void unsubscribe(final ActionId id, final DeviceId subscriber) {
+    final long bit = 1L << subscriber.ordinal();
+    subscribers.accumulateAndGet(id.ordinal(), bit, (a, b) -> a & ~b);
+  }
+
+  /**
+   * Return true if any device is subscribed to an action.
+   *
+   * @param id the action id.
+   * @return true if published messages of this action have a receiver.
+   */
+  public boolean hasSubscribers(final ActionId id) {
+    return subscribers.get(id.ordinal()) != 0;
+  }
+
+  /**
+   * Publish a message to every subscriber of its action, handing over the
+   * reference of the caller. The receiver of the message is set to
+   * {@link DeviceId#BLACKBOARD} and the message itself is posted to each
+   * subscriber, subscribers whose ring is full miss it.
+   *
+   * @param aclMessage the message to publish.
+   * @return the number of subscribers the message was posted to.
+   */
+  public int publish(final AclMessage aclMessage) {
+    return publish(aclMessage, false);
+  }
+
+  /**
+   * Publish a sample which the caller has written to the latest value topic
+   * of its action, handing over the reference of the caller. The topic has
+   * accepted the sample, so unlike {@link #publish(AclMessage)} the tap
+   * observes it even when no device subscribes, which lets the journal
+   * record sensor streams only read through their topic.
+   *
+   * @param aclMessage the message carrying the sample.
+   * @return the number of subscribers the message was posted to.
+   */
+  public int publishSample(final AclMessage aclMessage) {
+    return publish(aclMessage, true);
+  }
+
+  /**
+   * Publish a message to every subscriber of its action.
+   *
+   * @param aclMessage the message to publish.
+   * @param accepted true if the message was accepted by its topic.
+   * @return the number of subscribers the message was posted to.
+   */
+  private int publish(final AclMessage aclMessage, final boolean accepted) {
+    aclMessage.setReciever(DeviceId.BLACKBOARD);
+    long mask = subscribers.get(aclMessage.getActionId().ordinal());
+    final MessageTap t = tap;
+    if ((mask == 0 && (t == null || !accepted)) || !aclMessage.isValid()) {
+      aclMessage.release();
+      return 0;
+    }
+    if (tracer.isEnabled()) {
+      aclMessage.setEnqueuedNanos(System.nanoTime());
+    }
+    int delivered = 0;
+    while (mask != 0) {
+      final int bucket = Long.numberOfTrailingZeros(mask);
+      mask &= mask - 1;
+      if (post(bucket, aclMessage.retain())) {
+        delivered++;
+      }
+    }
+    if (t != null && (delivered > 0 || accepted)) {
+      t.onMessage(aclMessage);
+    }
+    aclMessage.release();
+    return delivered;
+  }
+
+  /**
+   * Set the observer of every accepted message.
+   *
+   * @param tap the tap, or null to remove it.
+   */
+  public void setTap(final MessageTap tap) {
+    this.tap = tap;
+  }
+
+  /**
+   * Get the observer of every accepted message.
+   *
+   * @return the tap, null if none.
+   */
+  public MessageTap getTap() {
+    return tap;
+  }
+
+  /**
+   * Get the message latency tracer of this blackboard.
+   *
+   * @return the tracer.
+   */
+  public MessageTracer getTracer() {
+    return tracer;
+  }
+
+  /**
+   * Get the message pool of this blackboard.
+   *
+   * @return the message pool.
+   */
+  public AclMessagePool getPool() {
+    return pool;
+  }
+
+  /**
+   * Add a message to the blackboard, handing over the reference of the caller.
+   * If the message is invalid or the ring of the receiver is full the message
+   * is dropped and released.
    *
    * @param aclMessage
    *        the message to be added to this blackboard.
+   * @return false if the message was invalid or dropped.
    */
-  public synchronized void addMessage(final AclMessage aclMessage) {
-    if (aclMessage.isValid()) {
-      PriorityBlockingQueue<AclMessage> currentBucket = blackboard.get(aclMessage.getReciever());
-      if (currentBucket == null) {
-        currentBucket = new PriorityBlockingQueue<AclMessage>();
-      }
-      if (currentBucket.size() > Constants.MAX_BLACKBOARD_BUCKET_SIZE) {
-        currentBucket.clear();
+  public boolean addMessage(final AclMessage aclMessage) {
+    if (!aclMessage.isValid()) {
+      aclMessage.release();
+      return false;
+    }
+    if (tracer.isEnabled()) {
+      aclMessage.setEnqueuedNanos(System.nanoTime());
+    }
+    final MessageTap t = tap;
+    if (t == null) {
+      return post(aclMessage.getReciever().ordinal(), aclMessage);
+    }
+    // Hold a reference so the message stays valid for the tap once posted.
+    aclMessage.retain();
+    final boolean posted = post(aclMessage.getReciever().ordinal(), aclMessage);
+    if (posted) {
+      t.onMessage(aclMessage);
+    }
+    aclMessage.release();
+    return posted;
+  }
+
+  /**
+   * Post a message to a bucket, handing over one reference. The message is
+   * released if the ring is full.
+   *
+   * @param bucket the receiver device id ordinal.
+   * @param aclMessage the message.
+   * @return false if the message was dropped.
+   */
+  private boolean post(final int bucket, final AclMessage aclMessage) {
+    if (isCritical(aclMessage)) {
+      if (!critical[bucket].offer(aclMessage)) {
+        droppedCritical.incrementAndGet();
+        LOGGER.warn("Critical message dropped: " + aclMessage);
+        aclMessage.release();
+        return false;
       }
-      currentBucket.offer(aclMessage);
-      blackboard.put(aclMessage.getReciever(), currentBucket);
+    } else if (!bulk[bucket].offer(aclMessage)) {
+      dropped.incrementAndGet();
+      aclMessage.release();
+      return false;
     }
+    return true;
+  }
+
+  /**
+   * Return true if a message is posted to the critical ring of its receiver.
+   *
+   * @param msg the message.
+   * @return true for HIGH and MAX priority messages.
+   */
+  private static boolean isCritical(final AclMessage msg) {
+    return msg.getPriority().compareTo(AclPriority.HIGH) >= 0;
+  }
+
+  /**
+   * Take the next message of a bucket, critical messages first.
+   *
+   * @param bucket the receiver device id ordinal.
+   * @return the message or null if there is none.
+   */
+  private AclMessage poll(final int bucket) {
+    AclMessage m = critical[bucket].poll();
+    if (m == null) {
+      m = bulk[bucket].poll();
+    }
+    return m;
   }
 
   /**
@@ -72,21 +379,11 @@ public class Blackboard {
    *
    * @param id the device id to find messages for
    *
-   * @return the first ACLMessage found within the blackboard
+   * @return the first ACLMessage found within the blackboard, or null if there are none.
    *
    */
-  public synchronized AclMessage getMessage(DeviceId id) {
-    PriorityBlockingQueue<AclMessage> currentBucket = blackboard.get(id);
-    if (currentBucket == null) {
-      currentBucket = new PriorityBlockingQueue<AclMessage>();
-      blackboard.put(id, currentBucket);
-    }
-    final AclMessage n = blackboard.get(id).poll();
-    if (n != null && n.isValid()) {
-      return n;
-    } else {
-      return new AclMessage(MessageType.EMPTY);
-    }
+  public AclMessage getMessage(final DeviceId id) {
+    return poll(id.ordinal());
   }
 
   /**
@@ -95,16 +392,106 @@ public class Blackboard {
    *
    * @param device the device to find messages for
    *
-   * @return the first ACLMessage found within the blackboard
+   * @return the first ACLMessage found within the blackboard, or null if there are none.
    *
    */
-  public synchronized AclMessage getMessage(final Device device) {
+  public AclMessage getMessage(final Device device) {
     return getMessage(device.getId());
   }
 
+  /**
+   * Move every message for a device into a collection. May only be called by
+   * the thread executing the device.
+   *
+   * @param id the device id to drain messages for.
+   * @param sink the collection to add the messages to.
+   * @return the number of messages moved.
+   */
+  public int drainTo(final DeviceId id, final Collection<? super AclMessage> sink) {
+    int count = 0;
+    AclMessage m = poll(id.ordinal());
+    while (m != null) {
+      sink.add(m);
+      count++;
+      m = poll(id.ordinal());
+    }
+    return count;
+  }
+
+  /**
+   * Move every message for a device into its mailbox. May only be called by
+   * the thread executing the device. While tracing the mailbox keeps the
+   * time each message was drained.
+   *
+   * @param device the device to drain messages for.
+   * @return the number of messages moved.
+   */
+  public int drainTo(final Device device) {
+    final Mailbox mailbox = device.getMessages();
+    final int bucket = device.getId().ordinal();
+    final boolean traced = tracer.isEnabled();
+    int count = 0;
+    AclMessage m = poll(bucket);
+    while (m != null) {
+      mailbox.offer(m, traced ? System.nanoTime() : 0);
+      count++;
+      m = poll(bucket);
+    }
+    return count;
+  }
+
+  /**
+   * Return true if there are messages waiting for a device.
+   *
+   * @param id the device id.
+   * @return true if the ring of the device is not empty.
+   */
+  public boolean hasMessages(final DeviceId id) {
+    return !critical[id.ordinal()].isEmpty() || !bulk[id.ordinal()].isEmpty();
+  }
+
+  /**
+   * Get the number of bulk messages dropped because a ring was full.
+   *
+   * @return the number of dropped messages.
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Get the number of critical messages dropped because a ring was full.
+   *
+   * @return the number of dropped critical messages.
+   */
+  public long getDroppedCritical() {
+    return droppedCritical.get();
+  }
+
+  /**
+   * Get the number of messages waiting on this blackboard.
+   *
+   * @return the number of undelivered messages.
+   */
+  public int size() {
+    int size = 0;
+    for (int i = 0; i < bulk.length; i++) {
+      size += critical[i].size() + bulk[i].size();
+    }
+    return size;
+  }
+
+  /**
+   * Discard all messages.
+   */
   public void shutdown() {
-    blackboard.clear();
-    blackboard = null;
+    for (int i = 0; i < bulk.length; i++) {
+      AclMessage m = poll(i);
+      while (m != null) {
+        m.release();
+        m = poll(i);
+      }
+    }
   }
 
 }
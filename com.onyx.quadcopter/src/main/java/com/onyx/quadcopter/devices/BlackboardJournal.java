@@ -0,0 +1,467 @@
+package com.onyx.quadcopter.devices;
+
+import com.onyx.common.concurrent.MpmcRingBuffer;
+import com.onyx.common.concurrent.MpscRingBuffer;
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.AclPriority;
+import com.onyx.common.messaging.ActionId;
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.common.messaging.MessageType;
+import com.onyx.common.utils.Constants;
+import com.onyx.quadcopter.main.ThreadBudget;
+import com.onyx.quadcopter.utils.Clock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Asynchronous journal of every blackboard message.</p>
+ * <p>As a {@link MessageTap} the journal copies each message into a
+ * preallocated entry and hands it to a background writer through an
+ * {@link MpscRingBuffer}, so posting a message never waits on the database
+ * and never allocates. The writer inserts entries into the
+ * {@link Constants#DATABASE_CREATE blackboard} table in batches of up to
+ * {@link Constants#JOURNAL_BATCH_SIZE}, one transaction per batch, with the
+ * database in WAL mode. When every entry is in use messages are dropped and
+ * counted instead of delaying the sender. A table created by an earlier
+ * version is migrated by adding the {@link Constants#DATABASE_ADDED_COLUMNS}
+ * it lacks.</p>
+ *
+ * @author fred
+ *
+ */
+public final class BlackboardJournal implements MessageTap {
+
+  /**
+   * Logger.
+   */
+  public static final Logger LOGGER = LoggerFactory.getLogger(BlackboardJournal.class);
+
+  /**
+   * Time the writer parks for while the queue is empty.
+   */
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+  /**
+   * Free entries.
+   */
+  private final MpmcRingBuffer<Entry> free;
+
+  /**
+   * Entries waiting to be written.
+   */
+  private final MpscRingBuffer<Entry> queue;
+
+  /**
+   * Entries of the batch being written, only used by the writer.
+   */
+  private final Entry[] batch;
+
+  /**
+   * The database file.
+   */
+  private final File file;
+
+  /**
+   * The clock timestamping messages.
+   */
+  private final Clock clock;
+
+  /**
+   * Number of messages dropped because no entry was free.
+   */
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * Number of messages written.
+   */
+  private volatile long written;
+
+  /**
+   * Number of messages lost to database errors.
+   */
+  private volatile long failed;
+
+  /**
+   * True while the writer should keep running.
+   */
+  private volatile boolean running;
+
+  /**
+   * True once the writer stopped on a database error.
+   */
+  private volatile boolean failedWriter;
+
+  /**
+   * The writer thread.
+   */
+  private Thread writer;
+
+  /**
+   * The database connection, only used by the writer once started.
+   */
+  private Connection connection;
+
+  /**
+   * Create a new journal.
+   *
+   * @param file the database file.
+   * @param capacity the number of messages buffered before dropping.
+   * @param batchSize the maximum number of messages per transaction.
+   * @param clock the clock timestamping messages.
+   */
+  public BlackboardJournal(final File file, final int capacity, final int batchSize,
+      final Clock clock) {
+    if (capacity <= 0 || batchSize <= 0) {
+      throw new IllegalArgumentException("Invalid journal configuration.");
+    }
+    this.file = file;
+    this.clock = clock;
+    free = new MpmcRingBuffer<Entry>(capacity);
+    queue = new MpscRingBuffer<Entry>(free.capacity());
+    for (int i = 0; i < free.capacity(); i++) {
+      free.offer(new Entry());
+    }
+    batch = new Entry[Math.min(batchSize, free.capacity())];
+  }
+
+  /**
+   * Open the database and start the writer.
+   *
+   * @throws SQLException if the database can not be opened.
+   */
+  public synchronized void start() throws SQLException {
+    if (writer != null) {
+      return;
+    }
+    try {
+      Class.forName(Constants.DRIVER);
+    } catch (ClassNotFoundException e1) {
+      throw new SQLException("SQLite driver not found: " + Constants.DRIVER, e1);
+    }
+    final Connection c = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+    try {
+      try (Statement s = c.createStatement()) {
+        s.execute("PRAGMA journal_mode=WAL;");
+        s.execute("PRAGMA synchronous=NORMAL;");
+        s.execute(Constants.DATABASE_CREATE);
+      }
+      migrate(c);
+      start(c);
+    } catch (SQLException e1) {
+      c.close();
+      throw e1;
+    }
+    LOGGER.info("Journaling blackboard messages to " + file + ".");
+  }
+
+  /**
+   * Start the writer on an open database holding the blackboard table.
+   *
+   * @param c the database connection, closed when the journal stops.
+   * @throws SQLException if the connection can not be configured.
+   */
+  synchronized void start(final Connection c) throws SQLException {
+    if (writer != null) {
+      return;
+    }
+    connection = c;
+    connection.setAutoCommit(false);
+    running = true;
+    writer = ThreadBudget.newThreadFactory("onyx-journal-", true).newThread(this::write);
+    writer.start();
+  }
+
+  /**
+   * Add the columns a blackboard table created by an earlier version lacks.
+   *
+   * @param c the database connection.
+   * @throws SQLException if the table can not be altered.
+   */
+  private static void migrate(final Connection c) throws SQLException {
+    final Set<String> columns = new HashSet<String>();
+    try (Statement s = c.createStatement();
+        ResultSet rs = s.executeQuery("PRAGMA table_info(blackboard);")) {
+      while (rs.next()) {
+        columns.add(rs.getString("name").toUpperCase(Locale.ROOT));
+      }
+    }
+    for (final String column : Constants.DATABASE_ADDED_COLUMNS) {
+      final String name = column.substring(0, column.indexOf(' '));
+      if (!columns.contains(name)) {
+        try (Statement s = c.createStatement()) {
+          s.execute("ALTER TABLE blackboard ADD COLUMN " + column + ";");
+        }
+        LOGGER.info("Added column " + name + " to the blackboard table.");
+      }
+    }
+  }
+
+  /**
+   * Stop the writer once every queued message is written. The writer closes
+   * the database when it exits, also when it stopped on an error.
+   *
+   * @throws InterruptedException if interrupted while waiting for the writer.
+   */
+  public synchronized void stop() throws InterruptedException {
+    if (writer == null) {
+      return;
+    }
+    running = false;
+    LockSupport.unpark(writer);
+    writer.join();
+    writer = null;
+  }
+
+  @Override
+  public void onMessage(final AclMessage msg) {
+    final Entry e = free.poll();
+    if (e == null) {
+      dropped.incrementAndGet();
+      return;
+    }
+    e.copy(msg, clock.nanoTime());
+    queue.offer(e);
+  }
+
+  /**
+   * Writer loop, inserts queued entries until stopped and drained, then
+   * closes the database.
+   */
+  private void write() {
+    try (PreparedStatement insert = connection.prepareStatement(Constants.ADD_MESSAGE_STATEMENT)) {
+      while (running || !queue.isEmpty()) {
+        int n = 0;
+        Entry e = queue.poll();
+        while (e != null) {
+          batch[n++] = e;
+          if (n == batch.length) {
+            break;
+          }
+          e = queue.poll();
+        }
+        if (n == 0) {
+          LockSupport.parkNanos(IDLE_PARK_NANOS);
+        } else {
+          writeBatch(insert, n);
+        }
+      }
+    } catch (SQLException e1) {
+      LOGGER.error("Journal writer stopped: " + e1.getMessage());
+      failedWriter = true;
+      running = false;
+    } finally {
+      try {
+        connection.close();
+      } catch (SQLException e1) {
+        LOGGER.error("Failed to close journal: " + e1.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Insert a batch of entries in one transaction and free them. The
+   * entries are free again by the time they are counted as written.
+   *
+   * @param insert the insert statement.
+   * @param n the number of entries in the batch.
+   */
+  private void writeBatch(final PreparedStatement insert, final int n) {
+    boolean committed = false;
+    try {
+      for (int i = 0; i < n; i++) {
+        batch[i].bind(insert);
+        insert.addBatch();
+      }
+      insert.executeBatch();
+      connection.commit();
+      committed = true;
+    } catch (SQLException e1) {
+      failed += n;
+      LOGGER.error("Failed to journal " + n + " messages: " + e1.getMessage());
+      try {
+        insert.clearBatch();
+        connection.rollback();
+      } catch (SQLException e2) {
+        LOGGER.error("Journal rollback failed: " + e2.getMessage());
+      }
+    } finally {
+      for (int i = 0; i < n; i++) {
+        batch[i].content = null;
+        free.offer(batch[i]);
+        batch[i] = null;
+      }
+    }
+    if (committed) {
+      written += n;
+    }
+  }
+
+  /**
+   * Return true while the writer is running.
+   *
+   * @return true if messages are being journaled.
+   */
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Return true if the writer stopped on a database error. Messages are no
+   * longer journaled and the journal should be removed as a tap.
+   *
+   * @return true if the writer failed.
+   */
+  public boolean isFailed() {
+    return failedWriter;
+  }
+
+  /**
+   * Get the number of messages dropped because the queue was full.
+   *
+   * @return the number of dropped messages.
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Get the number of messages written.
+   *
+   * @return the number of journaled messages.
+   */
+  public long getWritten() {
+    return written;
+  }
+
+  /**
+   * Get the number of messages lost to database errors.
+   *
+   * @return the number of failed messages.
+   */
+  public long getFailed() {
+    return failed;
+  }
+
+  @Override
+  public String toString() {
+    return "journal written=" + written + " queued=" + queue.size()
+        + " dropped=" + dropped.get() + " failed=" + failed;
+  }
+
+  /**
+   * Copy of a message waiting to be written.
+   */
+  private static final class Entry {
+
+    /**
+     * The receiver.
+     */
+    private DeviceId receiver;
+
+    /**
+     * The sender.
+     */
+    private DeviceId sender;
+
+    /**
+     * The action id.
+     */
+    private ActionId action;
+
+    /**
+     * The message type.
+     */
+    private MessageType type;
+
+    /**
+     * The priority.
+     */
+    private AclPriority priority;
+
+    /**
+     * The content.
+     */
+    private String content;
+
+    /**
+     * The value.
+     */
+    private double value;
+
+    /**
+     * The time the message was posted in nanoseconds.
+     */
+    private long timestamp;
+
+    /**
+     * The vector payload.
+     */
+    private final double[] vector = new double[AclMessage.VECTOR_SIZE];
+
+    /**
+     * Number of vector elements.
+     */
+    private int vectorLength;
+
+    /**
+     * Copy a message.
+     *
+     * @param msg the message.
+     * @param nanos the time the message was posted.
+     */
+    private void copy(final AclMessage msg, final long nanos) {
+      receiver = msg.getReciever();
+      sender = msg.getSender();
+      action = msg.getActionId();
+      type = msg.getMessageType();
+      priority = msg.getPriority();
+      content = msg.getContent();
+      value = msg.getValue();
+      timestamp = nanos;
+      vectorLength = msg.getVector(vector);
+    }
+
+    /**
+     * Bind this entry to the insert statement.
+     *
+     * @param insert the insert statement.
+     * @throws SQLException if a parameter can not be set.
+     */
+    private void bind(final PreparedStatement insert) throws SQLException {
+      insert.setInt(1, receiver.ordinal());
+      insert.setInt(2, sender.ordinal());
+      insert.setInt(3, action.ordinal());
+      insert.setInt(4, type.ordinal());
+      insert.setString(5, content);
+      insert.setDouble(6, value);
+      insert.setInt(7, priority.ordinal());
+      insert.setLong(8, timestamp);
+      if (vectorLength == 0) {
+        insert.setNull(9, Types.BLOB);
+      } else {
+        final ByteBuffer buf = ByteBuffer.allocate(vectorLength * Double.BYTES);
+        for (int i = 0; i < vectorLength; i++) {
+          buf.putDouble(vector[i]);
+        }
+        insert.setBytes(9, buf.array());
+      }
+    }
+  }
+}
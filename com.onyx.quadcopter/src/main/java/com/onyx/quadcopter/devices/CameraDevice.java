@@ -68,6 +68,11 @@ public class CameraDevice extends Device {
     matrix.release();
   }
 
+  @Override
+  public ExecutionMode getExecutionMode() {
+    return ExecutionMode.IO;
+  }
+
   @Override
   public boolean selfTest() {
     return webcam.isOpened();
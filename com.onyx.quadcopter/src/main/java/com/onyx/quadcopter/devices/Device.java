@@ -7,12 +7,19 @@ import com.onyx.common.messaging.DeviceId;
 import com.onyx.common.messaging.MessageType;
 import com.onyx.common.utils.Constants;
 import com.onyx.quadcopter.main.Controller;
+import com.onyx.quadcopter.main.Main;
+import com.onyx.quadcopter.utils.Clock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.UUID;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 public abstract class Device implements IDevice {
@@ -39,7 +46,9 @@ public abstract class Device implements IDevice {
   protected volatile boolean initialized = false;
 
   /**
-   * The last message posted to the black board for this agent.
+   * The last message posted to the black board for this agent. This device
+   * holds a reference to the last and previous messages until they are
+   * replaced, pooled messages must not be kept beyond that.
    */
   protected volatile AclMessage lastMessage;
   protected volatile AclMessage previousMessage;
@@ -50,9 +59,43 @@ public abstract class Device implements IDevice {
   private String name;
 
   /**
-   * Stack of ACL Messages.
+   * Prefix of the property overriding the overflow policy of a device,
+   * followed by the device id name.
    */
-  private PriorityBlockingQueue<AclMessage> messages = new PriorityBlockingQueue<AclMessage>();
+  private static final String OVERFLOW_POLICY_PROPERTY =
+      "com.onyx.quadcopter.blackboard.overflow.";
+
+  /**
+   * Mailbox of ACL Messages, only accessed by the thread executing this device.
+   */
+  private final Mailbox messages =
+      new Mailbox(Constants.MAILBOX_SIZE, OverflowPolicy.DROP_LOWEST_PRIORITY);
+
+  /**
+   * Requests sent with {@link #ask} waiting for their reply.
+   */
+  private final PendingReplies pendingReplies = new PendingReplies();
+
+  /**
+   * Clock time at which an event driven device is executed without a
+   * message, Long.MAX_VALUE if its timer is not set.
+   */
+  private volatile long wakeAt = Long.MAX_VALUE;
+
+  /**
+   * Clock time from which the next status line may be displayed.
+   */
+  private long nextStatusDisplay;
+
+  /**
+   * True once a status line has been displayed.
+   */
+  private boolean statusDisplayed;
+
+  /**
+   * Ownership flag, true while a thread is executing this device.
+   */
+  private final AtomicBoolean executing = new AtomicBoolean(false);
 
   /**
    * Create a new Device.
@@ -87,20 +130,39 @@ public abstract class Device implements IDevice {
    */
   protected void update() {
     if (isNewMessage()) {
-      while (getMessages().size() > 0) {
-        AclMessage msg = getMessages().poll();
+      final MessageTracer tracer = getController().getBlackboard().getTracer();
+      AclMessage msg;
+      while ((msg = getMessages().poll()) != null) {
+        if (pendingReplies.complete(msg)) {
+          msg.release();
+          continue;
+        }
+        if (previousMessage != null) {
+          previousMessage.release();
+        }
         previousMessage = lastMessage;
         if (previousMessage == null) {
-          previousMessage = msg;
+          previousMessage = msg.retain();
         }
         lastMessage = msg;
         this.update(msg);
+        if (tracer.isEnabled()) {
+          tracer.record(msg, getId(), getMessages().getDrainedNanos(), System.nanoTime());
+        }
       }
     }
   }
 
+  /**
+   * Execute this device. Only one thread may execute a device at a time,
+   * if another thread currently owns this device the call returns immediately
+   * rather than blocking.
+   */
   @Override
-  public synchronized void execute() {
+  public void execute() {
+    if (!executing.compareAndSet(false, true)) {
+      return;
+    }
     try {
       gatherMessages();
       update();
@@ -112,30 +174,35 @@ public abstract class Device implements IDevice {
       }
     } catch (Throwable t1) {
       LOGGER.error(getName() + ": " + t1.getMessage());
+    } finally {
+      executing.set(false);
     }
   }
 
+  /**
+   * Return true while a thread is executing this device.
+   *
+   * @return true if this device is executing.
+   */
+  public boolean isExecuting() {
+    return executing.get();
+  }
+
   /**
    * Accumulate all messages from the blackboard for this device.
    */
   protected void gatherMessages() {
-    AclMessage msg = getController().getBlackboard().getMessage(this);
-    while (msg != null && msg.isValid()) {
-      messages.offer(msg);
-      msg = getController().getBlackboard().getMessage(this);
-    }
-    if (messages.size() > Constants.MAX_BLACKBOARD_BUCKET_SIZE) {
-      messages.clear();
-    }
+    getController().getBlackboard().drainTo(this);
   }
 
   /**
-   * Get the messages for this device.
+   * Get the messages for this device. The mailbox is owned by the thread
+   * executing this device and must not be accessed from other threads.
    * 
    * @return
-   *     the queue of messages for this device from the blackboard.
+   *     the mailbox of messages for this device from the blackboard.
    */
-  public PriorityBlockingQueue<AclMessage> getMessages() {
+  public Mailbox getMessages() {
     return messages;
   }
 
@@ -146,7 +213,7 @@ public abstract class Device implements IDevice {
    *    true if there is a message for this device.
    */
   protected boolean isNewMessage() {
-    return messages.size() > 0;
+    return !messages.isEmpty();
   }
 
   /**
@@ -167,6 +234,124 @@ public abstract class Device implements IDevice {
     return initialized;
   }
 
+  /**
+   * Get the execution stage of this device within a controller tick.
+   * Devices default to the {@link Stage#IO} stage.
+   *
+   * @return the stage of this device.
+   */
+  public Stage getStage() {
+    return Stage.IO;
+  }
+
+  /**
+   * Get the rate group of this device. Devices default to the
+   * {@link RateGroup#IMU} group and are executed on every tick.
+   *
+   * @return the rate group of this device.
+   */
+  public RateGroup getRateGroup() {
+    return RateGroup.IMU;
+  }
+
+  /**
+   * True if this device only has work to do when a message arrives or its
+   * timer set with {@link #wakeAfter(long)} fires. Event driven devices are
+   * skipped on ticks without either, see {@link #isDue()}. Devices default
+   * to being executed on every tick of their rate group.
+   *
+   * @return true if this device is event driven.
+   */
+  public boolean isEventDriven() {
+    return false;
+  }
+
+  /**
+   * Return true if this device has work to do on the current tick. Always
+   * true unless this device is event driven, in which case it is true while
+   * messages wait for it on the blackboard or in its mailbox, or once its
+   * timer has fired. Called by the thread scheduling this device.
+   *
+   * @return true if this device should be executed.
+   */
+  public boolean isDue() {
+    if (!isEventDriven()) {
+      return true;
+    }
+    if (getController().getBlackboard().hasMessages(getId()) || !messages.isEmpty()) {
+      return true;
+    }
+    if (wakeAt != Long.MAX_VALUE && getClock().nanoTime() >= wakeAt) {
+      wakeAt = Long.MAX_VALUE;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Execute this event driven device once the given time has passed, even
+   * if no message arrives. Replaces any earlier timer.
+   *
+   * @param nanos the delay in nanoseconds.
+   */
+  protected void wakeAfter(final long nanos) {
+    wakeAt = getClock().nanoTime() + nanos;
+  }
+
+  /**
+   * Drive the outputs of this device to a safe state. Called from the watchdog
+   * thread while the control loop is stalled, so implementations must not use
+   * the blackboard or wait on the thread executing this device.
+   */
+  public void failSafe() {}
+
+  /**
+   * Get the overflow policy of the mailbox of this device, which may be
+   * overridden with the property {@code com.onyx.quadcopter.blackboard.overflow.<DEVICE_ID>}.
+   * Devices default to {@link OverflowPolicy#DROP_LOWEST_PRIORITY}.
+   *
+   * @return the overflow policy of this device.
+   */
+  public OverflowPolicy getOverflowPolicy() {
+    return OverflowPolicy.DROP_LOWEST_PRIORITY;
+  }
+
+  /**
+   * Get the configured overflow policy of this device.
+   *
+   * @return the configured overflow policy, or {@link #getOverflowPolicy()} if none.
+   */
+  private OverflowPolicy resolveOverflowPolicy() {
+    final String configured = Constants.PROPERTIES.getStringProperty(
+        OVERFLOW_POLICY_PROPERTY + getId().name(), getOverflowPolicy().name());
+    try {
+      return OverflowPolicy.valueOf(configured.trim());
+    } catch (IllegalArgumentException e1) {
+      LOGGER.warn(getName() + ": unknown overflow policy " + configured + ".");
+      return getOverflowPolicy();
+    }
+  }
+
+  /**
+   * Get the execution mode of this device. Devices which block on I/O
+   * return {@link ExecutionMode#IO} so they are executed off the scheduling threads.
+   *
+   * @return the execution mode of this device.
+   */
+  public ExecutionMode getExecutionMode() {
+    return ExecutionMode.INLINE;
+  }
+
+  /**
+   * True if this device must run on the dedicated flight control loop.
+   * Devices which are not flight critical are executed on the shared coordinator.
+   *
+   * @return true if this device is flight critical.
+   */
+  public final boolean isFlightCritical() {
+    return getStage().isFlightCritical();
+  }
+
   /**
    * Initialize the device.
    */
@@ -215,6 +400,24 @@ public abstract class Device implements IDevice {
         ActionId.DISPLAY, AclPriority.MEDIUM);
   }
 
+  /**
+   * Claim the next status line on the display. Status lines are displayed at
+   * most at the rate of {@link RateGroup#DISPLAY}, so a device running faster
+   * only builds and sends its status text when this returns zero.
+   *
+   * @return 0 if a status line may be displayed now, otherwise the time in
+   *     nanoseconds until one may.
+   */
+  protected long claimStatusDisplay() {
+    final long now = getClock().nanoTime();
+    if (statusDisplayed && nextStatusDisplay - now > 0) {
+      return nextStatusDisplay - now;
+    }
+    statusDisplayed = true;
+    nextStatusDisplay = now + RateGroup.DISPLAY.getPeriodNanos();
+    return 0;
+  }
+
   /**
    * Send a message to receiver.
    * 
@@ -224,8 +427,7 @@ public abstract class Device implements IDevice {
    */
   public void sendMessage(final MessageType type, final DeviceId receiver, final String content,
       final double value, final ActionId action, final AclPriority priority, final UUID uuid) {
-    final AclMessage m = new AclMessage(type);
-    m.setActionId(action);
+    final AclMessage m = getController().getBlackboard().acquire(type, action);
     m.setContent(content);
     m.setReciever(receiver);
     m.setSender(getId());
@@ -244,8 +446,7 @@ public abstract class Device implements IDevice {
    */
   public void sendMessage(final MessageType type, final DeviceId receiver, final String content,
       final double value, final ActionId action, final AclPriority priority) {
-    final AclMessage m = new AclMessage(type);
-    m.setActionId(action);
+    final AclMessage m = getController().getBlackboard().acquire(type, action);
     m.setContent(content);
     m.setReciever(receiver);
     m.setSender(getId());
@@ -290,6 +491,83 @@ public abstract class Device implements IDevice {
     sendMessage(receiver, content, 0.0, action, AclPriority.MEDIUM);
   }
 
+  /**
+   * Send a three element vector to receiver. (ACLPriority.MEDIUM)
+   *
+   * @param receiver the message recipient
+   * @param action the actionId
+   * @param x the first element
+   * @param y the second element
+   * @param z the third element
+   */
+  public void sendVector(final DeviceId receiver, final ActionId action,
+      final double x, final double y, final double z) {
+    final AclMessage m = getController().getBlackboard().acquire(MessageType.SEND, action);
+    m.setVector(x, y, z);
+    m.setReciever(receiver);
+    m.setSender(getId());
+    getController().getBlackboard().addMessage(m);
+  }
+
+  /**
+   * Send a four element vector to receiver. (ACLPriority.MEDIUM)
+   *
+   * @param receiver the message recipient
+   * @param action the actionId
+   * @param x the first element
+   * @param y the second element
+   * @param z the third element
+   * @param w the fourth element
+   */
+  public void sendVector(final DeviceId receiver, final ActionId action,
+      final double x, final double y, final double z, final double w) {
+    final AclMessage m = getController().getBlackboard().acquire(MessageType.SEND, action);
+    m.setVector(x, y, z, w);
+    m.setReciever(receiver);
+    m.setSender(getId());
+    getController().getBlackboard().addMessage(m);
+  }
+
+  /**
+   * Publish a three element sample to the latest value topic of an action,
+   * replacing the previous sample. If devices are subscribed to the action
+   * the sample is also published to them as a single shared message, which
+   * the blackboard tap also observes so the sample is journaled.
+   *
+   * @param topic the action id of the topic
+   * @param x the first element
+   * @param y the second element
+   * @param z the third element
+   */
+  public void publish(final ActionId topic, final double x, final double y, final double z) {
+    final Blackboard blackboard = getController().getBlackboard();
+    blackboard.getTopic(topic).publish(x, y, z, getClock().nanoTime());
+    if (blackboard.hasSubscribers(topic) || blackboard.getTap() != null) {
+      final AclMessage m = blackboard.acquire(MessageType.SEND, topic);
+      m.setVector(x, y, z);
+      m.setSender(getId());
+      blackboard.publishSample(m);
+    }
+  }
+
+  /**
+   * Subscribe this device to the messages published for an action.
+   *
+   * @param topic the action id to subscribe to
+   */
+  public void subscribe(final ActionId topic) {
+    getController().getBlackboard().subscribe(topic, getId());
+  }
+
+  /**
+   * Unsubscribe this device from the messages published for an action.
+   *
+   * @param topic the action id to unsubscribe from
+   */
+  public void unsubscribe(final ActionId topic) {
+    getController().getBlackboard().unsubscribe(topic, getId());
+  }
+
   /**
    * Send an ACLMessage.
    * 
@@ -297,9 +575,10 @@ public abstract class Device implements IDevice {
    *    the ACLMessage to send.
    */
   public void sendMessage(AclMessage aclm) {
-    sendMessage(aclm.getMessageType(),
-        aclm.getReciever(), aclm.getContent(), aclm.getValue(), aclm.getActionId(),
-        aclm.getPriority(), aclm.getUuid());
+    final AclMessage m = getController().getBlackboard()
+        .acquire(aclm.getMessageType(), aclm.getActionId()).copyFrom(aclm);
+    m.setSender(getId());
+    getController().getBlackboard().addMessage(m);
   }
   
 
@@ -340,6 +619,108 @@ public abstract class Device implements IDevice {
     sendMessage(receiver, content, 0.0, action, AclPriority.LOW);
   }
 
+  /**
+   * Create a batch of messages from this device which are published at once.
+   * A batch is meant to be kept and reused by the thread publishing it.
+   *
+   * @param capacity the maximum number of messages per publication.
+   * @return the new batch.
+   */
+  public MessageBatch newBatch(final int capacity) {
+    return new MessageBatch(this, capacity);
+  }
+
+  /**
+   * Send a request and return a future completed by its reply. The request
+   * carries a new correlation id which the receiver copies into its reply,
+   * the reply is then handed to the future instead of {@link #update(AclMessage)}.
+   * The future fails with a {@link TimeoutException} if no reply arrives in time.
+   *
+   * @param request the request, the sender is set to this device.
+   * @param timeout how long to wait for the reply.
+   * @param unit the time unit of timeout.
+   * @return the future reply.
+   */
+  public CompletableFuture<AclMessage> ask(final AclMessage request, final long timeout,
+      final TimeUnit unit) {
+    final Blackboard blackboard = getController().getBlackboard();
+    final long correlationId = blackboard.nextCorrelationId();
+    final CompletableFuture<AclMessage> reply = pendingReplies.register(correlationId);
+    final AclMessage m = blackboard.acquire(request.getMessageType(), request.getActionId())
+        .copyFrom(request);
+    m.setSender(getId());
+    m.setCorrelationId(correlationId);
+    if (!blackboard.addMessage(m)) {
+      pendingReplies.fail(correlationId,
+          new IllegalStateException("Request to " + request.getReciever() + " was dropped."));
+      return reply;
+    }
+    final ScheduledFuture<?> expiry = Main.COORDINATOR.schedule(
+        () -> pendingReplies.fail(correlationId, new TimeoutException(
+            "No reply from " + request.getReciever() + " within " + timeout + " " + unit + ".")),
+        timeout, unit);
+    reply.whenComplete((r, t) -> expiry.cancel(false));
+    return reply;
+  }
+
+  /**
+   * Send a request and return a future completed by its reply, waiting at
+   * most {@link Constants#REPLY_TIMEOUT} milliseconds.
+   *
+   * @param receiver the message recipient
+   * @param content the contents of the message
+   * @param action the actionId
+   * @return the future reply.
+   */
+  public CompletableFuture<AclMessage> ask(final DeviceId receiver, final String content,
+      final ActionId action) {
+    final AclMessage request = new AclMessage(MessageType.SEND, action);
+    request.setReciever(receiver);
+    request.setContent(content);
+    return ask(request, Constants.REPLY_TIMEOUT, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Get the number of requests waiting for a reply.
+   *
+   * @return the number of outstanding requests.
+   */
+  public int getPendingReplies() {
+    return pendingReplies.size();
+  }
+
+  /**
+   * Fail every request of this device still waiting for a reply with a
+   * {@link CancellationException}. Called once the device is shut down, so
+   * no caller waits for a reply which can no longer arrive.
+   */
+  public final void cancelRequests() {
+    pendingReplies.failAll(new CancellationException(getName() + " was shut down."));
+  }
+
+  /**
+   * Reply to a request. The reply carries the UUID and correlation id of
+   * the request.
+   *
+   * @param request the request being answered.
+   * @param content the content of the reply.
+   * @param value the value of the reply.
+   * @param action the actionId of the reply.
+   * @param priority the priority of the reply.
+   */
+  public void reply(final AclMessage request, final String content, final double value,
+      final ActionId action, final AclPriority priority) {
+    final AclMessage m = getController().getBlackboard().acquire(MessageType.REPLY, action);
+    m.setContent(content);
+    m.setReciever(request.getSender());
+    m.setSender(getId());
+    m.setValue(value);
+    m.setPriority(priority);
+    m.setUuid(request.hasUuid() ? request.getUuid() : null);
+    m.setCorrelationId(request.getCorrelationId());
+    getController().getBlackboard().addMessage(m);
+  }
+
   /**
    * Send a reply to the last sender.
    * 
@@ -352,8 +733,7 @@ public abstract class Device implements IDevice {
    */
   public void sendReply(final String content, final double value, final ActionId action,
       final AclPriority priority) {
-    sendMessage(MessageType.REPLY,
-        lastMessage.getSender(), content, value, action, priority, lastMessage.getUuid());
+    reply(lastMessage, content, value, action, priority);
   }
 
   /**
@@ -366,8 +746,7 @@ public abstract class Device implements IDevice {
    */
   public void sendReply(final String content,
       final ActionId action, final AclPriority priority) {
-    sendMessage(MessageType.REPLY,
-        lastMessage.getSender(), content, 0.0, action, priority, lastMessage.getUuid());
+    reply(lastMessage, content, 0.0, action, priority);
   }
 
   /**
@@ -377,8 +756,7 @@ public abstract class Device implements IDevice {
    *    the content of this message.
    */
   public void sendReply(final String content) {
-    sendMessage(MessageType.REPLY, lastMessage.getSender(), content, 0.0, lastMessage.getActionId(),
-        lastMessage.getPriority(), lastMessage.getUuid());
+    reply(lastMessage, content, 0.0, lastMessage.getActionId(), lastMessage.getPriority());
   }
 
   /**
@@ -390,8 +768,7 @@ public abstract class Device implements IDevice {
    *     the value of this message.
    */
   public void sendReply(final String content, final double value) {
-    sendMessage(MessageType.REPLY, lastMessage.getSender(), content, value,
-        lastMessage.getActionId(), lastMessage.getPriority(), lastMessage.getUuid());
+    reply(lastMessage, content, value, lastMessage.getActionId(), lastMessage.getPriority());
   }
 
   /**
@@ -429,6 +806,15 @@ public abstract class Device implements IDevice {
     return controller;
   }
 
+  /**
+   * Get the clock this device should read time from.
+   *
+   * @return the controller clock.
+   */
+  protected Clock getClock() {
+    return getController().getClock();
+  }
+
   /**
    * Initialize this device.
    */
@@ -439,9 +825,13 @@ public abstract class Device implements IDevice {
       }
       try {
         LOGGER.debug("Initializing " + getName());
+        messages.setPolicy(resolveOverflowPolicy());
         init();
         LOGGER.debug("Device: " + getName() + " initialized.");
         initialized = true;
+        if (controller != this) {
+          controller.deviceInitialized(this);
+        }
       } catch (Throwable t1) {
         LOGGER.error(getName() + ": " + t1.getMessage());
       }
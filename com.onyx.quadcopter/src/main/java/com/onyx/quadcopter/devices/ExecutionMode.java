@@ -0,0 +1,21 @@
+package com.onyx.quadcopter.devices;
+
+/**
+ * How the {@link Device} is executed by its execution plan.
+ *
+ * @author fred
+ *
+ */
+public enum ExecutionMode {
+
+  /**
+   * Executed directly on the thread running the execution plan.
+   */
+  INLINE,
+
+  /**
+   * Handed off to the blocking I/O executor so blocking reads and
+   * writes never hold a scheduling thread.
+   */
+  IO;
+}
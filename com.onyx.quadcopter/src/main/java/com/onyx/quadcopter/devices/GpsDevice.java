@@ -87,6 +87,16 @@ public class GpsDevice extends Device
     sendMessage(DeviceId.OLED_DEVICE, "Fix Quality: " + lastFix, ActionId.DISPLAY);
   }
 
+  @Override
+  public RateGroup getRateGroup() {
+    return RateGroup.NAVIGATION;
+  }
+
+  @Override
+  public ExecutionMode getExecutionMode() {
+    return ExecutionMode.IO;
+  }
+
   @Override
   public boolean selfTest() {
     return true;
@@ -37,13 +37,9 @@ public class GyroMagAcc extends Device {
     super.update();
     lsm.update();
     orient = getRph();
-    setDisplay("Yaw: " + orient[0] + System.lineSeparator() + "Pitch: " + orient[1]
-        + System.lineSeparator() + "Roll: " + orient[2]);
     float[] gyro = lsm.getGyroscope();
-    sendMessage(DeviceId.PID,
-        gyro[0] + ":" + gyro[1] + ":" + gyro[2], ActionId.GYRO);
-    sendMessage(DeviceId.PID,
-        orient[0] + ":" + orient[1] + ":" + orient[2], ActionId.ORIENT);
+    publish(ActionId.GYRO, gyro[0], gyro[1], gyro[2]);
+    publish(ActionId.ORIENT, orient[0], orient[1], orient[2]);
   }
 
   @Override
@@ -117,6 +113,11 @@ public class GyroMagAcc extends Device {
     }
   }
 
+  @Override
+  public Stage getStage() {
+    return Stage.SENSOR;
+  }
+
   @Override
   public boolean selfTest() {
     if (!Constants.SIMULATION && lsm.getAccelerometer()[2] > 1) {
@@ -0,0 +1,453 @@
+package com.onyx.quadcopter.devices;
+
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.AclPriority;
+
+/**
+ * <p>Bounded mailbox of a device.</p>
+ * <p>Holds the messages drained from the blackboard until the device handles
+ * them. Messages are taken highest priority first and strictly in arrival
+ * order within a priority. Each {@link AclPriority} has its own FIFO lane and
+ * a bit mask records which lanes hold messages, so offer and poll are
+ * constant time and never allocate. A lane whose oldest message belongs to
+ * a {@link MessageBatch} which has not been committed yet is held back, so a
+ * batch is only ever handled as a whole. When the mailbox is full its
+ * {@link OverflowPolicy} decides which message is shed, every shed message
+ * is released and counted. The mailbox is owned by the thread executing its
+ * device, only the counters may be read from other threads.</p>
+ * <p>Each queued message may carry the time it was drained from the
+ * blackboard. Published messages are shared between subscribers, so the
+ * stamp is kept here for this receiver rather than on the message.</p>
+ *
+ * @author fred
+ *
+ */
+public final class Mailbox {
+
+  /**
+   * Number of priority levels.
+   */
+  private static final int LEVELS = AclPriority.values().length;
+
+  /**
+   * Lanes indexed by priority ordinal.
+   */
+  private final Lane[] lanes = new Lane[LEVELS];
+
+  /**
+   * Bit i is set while lane i holds messages.
+   */
+  private int occupied;
+
+  /**
+   * The maximum number of messages held.
+   */
+  private final int capacity;
+
+  /**
+   * Number of messages held.
+   */
+  private int size;
+
+  /**
+   * Arrival counter.
+   */
+  private long arrivals;
+
+  /**
+   * Drain time of the message last taken by {@link #poll()}.
+   */
+  private long drainedNanos;
+
+  /**
+   * The overflow policy.
+   */
+  private volatile OverflowPolicy policy;
+
+  /**
+   * Number of queued messages evicted to make room.
+   */
+  private volatile long evicted;
+
+  /**
+   * Number of new messages rejected.
+   */
+  private volatile long rejected;
+
+  /**
+   * Number of queued messages replaced by a newer one.
+   */
+  private volatile long conflated;
+
+  /**
+   * Create a new mailbox.
+   *
+   * @param capacity the maximum number of messages held.
+   * @param policy the overflow policy.
+   */
+  public Mailbox(final int capacity, final OverflowPolicy policy) {
+    if (capacity <= 0 || policy == null) {
+      throw new IllegalArgumentException("Invalid mailbox configuration.");
+    }
+    for (int i = 0; i < LEVELS; i++) {
+      lanes[i] = new Lane(capacity);
+    }
+    this.capacity = capacity;
+    this.policy = policy;
+  }
+
+  /**
+   * Add a message, taking over the reference of the caller.
+   *
+   * @param msg the message.
+   * @return false if the message was rejected.
+   */
+  public boolean offer(final AclMessage msg) {
+    return offer(msg, 0);
+  }
+
+  /**
+   * Add a message drained from the blackboard, taking over the reference of
+   * the caller.
+   *
+   * @param msg the message.
+   * @param drained the time the message was drained in nanoseconds, 0 if not stamped.
+   * @return false if the message was rejected.
+   */
+  public boolean offer(final AclMessage msg, final long drained) {
+    final int level = msg.getPriority().ordinal();
+    if (policy == OverflowPolicy.CONFLATE && lanes[level].conflate(msg, drained)) {
+      conflated++;
+      return true;
+    }
+    if (size == capacity && !makeRoom(level)) {
+      msg.release();
+      rejected++;
+      return false;
+    }
+    lanes[level].add(msg, arrivals++, drained);
+    occupied |= 1 << level;
+    size++;
+    return true;
+  }
+
+  /**
+   * Evict a message according to the overflow policy.
+   *
+   * @param level the priority ordinal of the new message.
+   * @return false if the new message must be rejected instead.
+   */
+  private boolean makeRoom(final int level) {
+    final int max = AclPriority.MAX.ordinal();
+    final int candidates = occupied & ~(1 << max);
+    if (candidates == 0) {
+      return false;
+    }
+    final AclMessage victim;
+    int lane;
+    switch (policy) {
+      case DROP_OLDEST:
+        lane = -1;
+        for (int i = 0; i < max; i++) {
+          if ((candidates & 1 << i) != 0
+              && (lane < 0 || lanes[i].headArrival() < lanes[lane].headArrival())) {
+            lane = i;
+          }
+        }
+        victim = lanes[lane].pollFirst();
+        break;
+      case DROP_LOWEST_PRIORITY:
+      case CONFLATE:
+        lane = Integer.numberOfTrailingZeros(candidates);
+        if (lane > level) {
+          return false;
+        }
+        victim = lanes[lane].pollFirst();
+        break;
+      default:
+        return false;
+    }
+    if (lanes[lane].isEmpty()) {
+      occupied &= ~(1 << lane);
+    }
+    victim.release();
+    size--;
+    evicted++;
+    return true;
+  }
+
+  /**
+   * Take the next committed message, the caller takes over its reference.
+   *
+   * @return the highest priority, oldest message or null if there is none.
+   */
+  public AclMessage poll() {
+    int candidates = occupied;
+    while (candidates != 0) {
+      final int level = 31 - Integer.numberOfLeadingZeros(candidates);
+      final Lane lane = lanes[level];
+      if (lane.peekFirst().isCommitted()) {
+        drainedNanos = lane.headDrained();
+        final AclMessage msg = lane.pollFirst();
+        if (lane.isEmpty()) {
+          occupied &= ~(1 << level);
+        }
+        size--;
+        return msg;
+      }
+      candidates &= ~(1 << level);
+    }
+    return null;
+  }
+
+  /**
+   * Get the time the message last taken by {@link #poll()} was drained
+   * from the blackboard.
+   *
+   * @return the drain time in nanoseconds, 0 if it was not stamped.
+   */
+  public long getDrainedNanos() {
+    return drainedNanos;
+  }
+
+  /**
+   * Release and discard every message.
+   */
+  public void clear() {
+    for (final Lane lane : lanes) {
+      while (!lane.isEmpty()) {
+        lane.pollFirst().release();
+      }
+    }
+    occupied = 0;
+    size = 0;
+  }
+
+  /**
+   * Get the number of messages held.
+   *
+   * @return the number of messages.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Return true if the mailbox is empty.
+   *
+   * @return true if there are no messages.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Get the capacity of this mailbox.
+   *
+   * @return the maximum number of messages held.
+   */
+  public int capacity() {
+    return capacity;
+  }
+
+  /**
+   * Get the overflow policy.
+   *
+   * @return the overflow policy.
+   */
+  public OverflowPolicy getPolicy() {
+    return policy;
+  }
+
+  /**
+   * Change the overflow policy.
+   *
+   * @param policy the new overflow policy.
+   */
+  public void setPolicy(final OverflowPolicy policy) {
+    if (policy != null) {
+      this.policy = policy;
+    }
+  }
+
+  /**
+   * Get the number of queued messages evicted to make room.
+   *
+   * @return the eviction count.
+   */
+  public long getEvicted() {
+    return evicted;
+  }
+
+  /**
+   * Get the number of new messages rejected.
+   *
+   * @return the rejection count.
+   */
+  public long getRejected() {
+    return rejected;
+  }
+
+  /**
+   * Get the number of queued messages replaced by a newer one.
+   *
+   * @return the conflation count.
+   */
+  public long getConflated() {
+    return conflated;
+  }
+
+  /**
+   * Get the overflow counters of this mailbox.
+   *
+   * @return a one line summary.
+   */
+  public String summary() {
+    return policy + " evicted=" + evicted + " rejected=" + rejected + " conflated=" + conflated;
+  }
+
+  /**
+   * FIFO ring of the messages of one priority.
+   */
+  private static final class Lane {
+
+    /**
+     * The ring of messages.
+     */
+    private final AclMessage[] ring;
+
+    /**
+     * Arrival order of the message in each ring slot.
+     */
+    private final long[] order;
+
+    /**
+     * Drain time of the message in each ring slot.
+     */
+    private final long[] drained;
+
+    /**
+     * Index of the oldest message.
+     */
+    private int head;
+
+    /**
+     * Number of messages in this lane.
+     */
+    private int count;
+
+    /**
+     * Create a new lane.
+     *
+     * @param capacity the maximum number of messages.
+     */
+    private Lane(final int capacity) {
+      ring = new AclMessage[capacity];
+      order = new long[capacity];
+      drained = new long[capacity];
+    }
+
+    /**
+     * Get the ring index of the i-th oldest message.
+     *
+     * @param i the position from the head.
+     * @return the ring index.
+     */
+    private int index(final int i) {
+      final int j = head + i;
+      return j < ring.length ? j : j - ring.length;
+    }
+
+    /**
+     * Append a message.
+     *
+     * @param msg the message.
+     * @param arrival the arrival order of the message.
+     * @param drainedNanos the drain time of the message.
+     */
+    private void add(final AclMessage msg, final long arrival, final long drainedNanos) {
+      final int i = index(count);
+      ring[i] = msg;
+      order[i] = arrival;
+      drained[i] = drainedNanos;
+      count++;
+    }
+
+    /**
+     * Get the oldest message without removing it.
+     *
+     * @return the message.
+     */
+    private AclMessage peekFirst() {
+      return ring[head];
+    }
+
+    /**
+     * Remove the oldest message.
+     *
+     * @return the message.
+     */
+    private AclMessage pollFirst() {
+      final AclMessage msg = ring[head];
+      ring[head] = null;
+      head = index(1);
+      count--;
+      return msg;
+    }
+
+    /**
+     * Get the arrival order of the oldest message.
+     *
+     * @return the arrival order.
+     */
+    private long headArrival() {
+      return order[head];
+    }
+
+    /**
+     * Get the drain time of the oldest message.
+     *
+     * @return the drain time.
+     */
+    private long headDrained() {
+      return drained[head];
+    }
+
+    /**
+     * Replace a queued message with the same sender, action and type in
+     * place, keeping its position in the lane. The queued message is
+     * released. Requests and replies carrying
+     * a correlation id are never conflated.
+     *
+     * @param msg the new message.
+     * @param drainedNanos the drain time of the new message.
+     * @return true if a queued message was replaced.
+     */
+    private boolean conflate(final AclMessage msg, final long drainedNanos) {
+      if (msg.getCorrelationId() != 0) {
+        return false;
+      }
+      for (int k = 0; k < count; k++) {
+        final int i = index(k);
+        final AclMessage m = ring[i];
+        if (m.getActionId() == msg.getActionId() && m.getSender() == msg.getSender()
+            && m.getMessageType() == msg.getMessageType() && m.getCorrelationId() == 0) {
+          m.release();
+          ring[i] = msg;
+          drained[i] = drainedNanos;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Return true if this lane is empty.
+     *
+     * @return true if there are no messages.
+     */
+    private boolean isEmpty() {
+      return count == 0;
+    }
+  }
+}
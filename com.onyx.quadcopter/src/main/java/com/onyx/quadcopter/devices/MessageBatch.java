@@ -0,0 +1,133 @@
+package com.onyx.quadcopter.devices;
+
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.AclPriority;
+import com.onyx.common.messaging.ActionId;
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.common.messaging.MessageType;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Group of messages for different receivers published as one update.</p>
+ * <p>Messages added to a batch are taken from the blackboard pool and carry
+ * the commit gate of the batch. {@link #publish()} posts them and then
+ * commits the batch with a single volatile write, until then receivers hold
+ * them back in their {@link Mailbox}, so a receiver never handles part of a
+ * batch while the rest is still being posted. A batch is reused from one
+ * publication to the next and never allocates once created. It must only be
+ * used by one thread.</p>
+ *
+ * @author fred
+ *
+ */
+public final class MessageBatch {
+
+  /**
+   * The sending device.
+   */
+  private final Device owner;
+
+  /**
+   * The messages of the current publication.
+   */
+  private final AclMessage[] messages;
+
+  /**
+   * Number of messages in the current publication.
+   */
+  private int size;
+
+  /**
+   * Sequence of the last committed publication.
+   */
+  private final AtomicLong committed = new AtomicLong();
+
+  /**
+   * Sequence of the current publication.
+   */
+  private long sequence = 1;
+
+  /**
+   * Create a new batch.
+   *
+   * @param owner the sending device.
+   * @param capacity the maximum number of messages per publication.
+   */
+  MessageBatch(final Device owner, final int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Invalid batch capacity: " + capacity);
+    }
+    this.owner = owner;
+    messages = new AclMessage[capacity];
+  }
+
+  /**
+   * Add a message to the current publication.
+   *
+   * @param receiver the message recipient
+   * @param content the contents of the message
+   * @param value the value of the message
+   * @param action the actionId
+   * @param priority the priority of the message
+   * @return this batch.
+   * @throws IllegalStateException if the batch is full.
+   */
+  public MessageBatch add(final DeviceId receiver, final String content, final double value,
+      final ActionId action, final AclPriority priority) {
+    if (size == messages.length) {
+      throw new IllegalStateException("Batch of " + messages.length + " messages is full.");
+    }
+    final AclMessage m = owner.getController().getBlackboard().acquire(MessageType.SEND, action);
+    m.setContent(content);
+    m.setReciever(receiver);
+    m.setSender(owner.getId());
+    m.setValue(value);
+    m.setPriority(priority);
+    m.setCommitGate(committed, sequence);
+    messages[size++] = m;
+    return this;
+  }
+
+  /**
+   * Post every message of the current publication and commit them at once.
+   *
+   * @return the number of messages accepted by the blackboard.
+   */
+  public int publish() {
+    final Blackboard blackboard = owner.getController().getBlackboard();
+    int accepted = 0;
+    try {
+      for (int i = 0; i < size; i++) {
+        if (blackboard.addMessage(messages[i])) {
+          accepted++;
+        }
+        messages[i] = null;
+      }
+    } finally {
+      committed.set(sequence++);
+      size = 0;
+    }
+    return accepted;
+  }
+
+  /**
+   * Discard the current publication.
+   */
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      messages[i].release();
+      messages[i] = null;
+    }
+    size = 0;
+  }
+
+  /**
+   * Get the number of messages in the current publication.
+   *
+   * @return the number of messages added since the last publication.
+   */
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,24 @@
+package com.onyx.quadcopter.devices;
+
+import com.onyx.common.messaging.AclMessage;
+
+/**
+ * <p>Observer of the messages accepted by a {@link Blackboard}.</p>
+ * <p>A tap is called on the thread posting the message, once the message
+ * has been accepted by at least one receiver, messages dropped because a
+ * ring was full are not observed. It must return quickly and must not block,
+ * the message is only valid for the duration of the call and must be copied
+ * or retained to be kept.</p>
+ *
+ * @author fred
+ *
+ */
+public interface MessageTap {
+
+  /**
+   * Observe a message posted to the blackboard.
+   *
+   * @param msg the message, which must not be modified.
+   */
+  void onMessage(AclMessage msg);
+}
@@ -0,0 +1,285 @@
+package com.onyx.quadcopter.devices;
+
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.ActionId;
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.common.utils.Constants;
+import com.onyx.quadcopter.utils.TimingHistogram;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>Blackboard message latency tracer.</p>
+ * <p>While enabled the blackboard stamps each message when it is posted and
+ * the receiver's {@link Mailbox} keeps the time the message was drained, a
+ * published message is shared by its subscribers so the drain time is kept
+ * per receiver rather than on the message. The receiver records both stamps
+ * once the message has been handled. Latencies are aggregated per sender, receiver
+ * and {@link ActionId} into a queue histogram (posted to drained) and a
+ * handle histogram (drained to handled). Topic samples are traced by their
+ * age when read.</p>
+ * <p>Histograms of a route are created the first time the route is traced,
+ * after that recording never allocates. While disabled tracing costs a
+ * single volatile read per message.</p>
+ *
+ * @author fred
+ *
+ */
+public final class MessageTracer {
+
+  /**
+   * Number of device ids.
+   */
+  private static final int DEVICES = DeviceId.values().length;
+
+  /**
+   * Number of action ids.
+   */
+  private static final int ACTIONS = ActionId.values().length;
+
+  /**
+   * True while tracing.
+   */
+  private volatile boolean enabled = Constants.MESSAGE_TRACING;
+
+  /**
+   * Routes indexed by sender, receiver and action id ordinals.
+   */
+  private final AtomicReferenceArray<Route> routes =
+      new AtomicReferenceArray<Route>(DEVICES * DEVICES * ACTIONS);
+
+  /**
+   * Topic sample ages indexed by action id ordinal.
+   */
+  private final TimingHistogram[] topics = new TimingHistogram[ACTIONS];
+
+  /**
+   * Create a new tracer.
+   */
+  public MessageTracer() {
+    for (int i = 0; i < ACTIONS; i++) {
+      topics[i] = new TimingHistogram();
+    }
+  }
+
+  /**
+   * Return true while tracing.
+   *
+   * @return true if tracing is enabled.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Enable or disable tracing.
+   *
+   * @param enabled true to trace messages.
+   */
+  public void setEnabled(final boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Record the latencies of a handled message. Messages which were not
+   * stamped on both the post and the drain are ignored.
+   *
+   * @param msg the message.
+   * @param dequeuedNanos the time the receiver drained the message, 0 if not stamped.
+   * @param handledNanos the time the message was handled.
+   */
+  public void record(final AclMessage msg, final long dequeuedNanos, final long handledNanos) {
+    record(msg, msg.getReciever(), dequeuedNanos, handledNanos);
+  }
+
+  /**
+   * Record the latencies of a message handled by a receiver. Published
+   * messages are addressed to the blackboard and shared by their
+   * subscribers, so the handling device is passed explicitly.
+   *
+   * @param msg the message.
+   * @param receiver the device which handled the message.
+   * @param dequeuedNanos the time the receiver drained the message, 0 if not stamped.
+   * @param handledNanos the time the message was handled.
+   */
+  public void record(final AclMessage msg, final DeviceId receiver, final long dequeuedNanos,
+      final long handledNanos) {
+    if (msg.getEnqueuedNanos() == 0 || dequeuedNanos == 0) {
+      return;
+    }
+    final Route route = getOrCreateRoute(msg.getSender(), receiver, msg.getActionId());
+    route.queue.record(dequeuedNanos - msg.getEnqueuedNanos());
+    route.handle.record(handledNanos - dequeuedNanos);
+  }
+
+  /**
+   * Record the age of a topic sample when it was read.
+   *
+   * @param topic the action id of the topic.
+   * @param ageNanos the sample age in nanoseconds.
+   */
+  public void recordSampleAge(final ActionId topic, final long ageNanos) {
+    topics[topic.ordinal()].record(ageNanos);
+  }
+
+  /**
+   * Get the index of a route.
+   *
+   * @param sender the sender.
+   * @param receiver the receiver.
+   * @param action the action id.
+   * @return the route index.
+   */
+  private static int index(final DeviceId sender, final DeviceId receiver,
+      final ActionId action) {
+    return (sender.ordinal() * DEVICES + receiver.ordinal()) * ACTIONS + action.ordinal();
+  }
+
+  /**
+   * Get a route, creating it if it has not been traced yet.
+   *
+   * @param sender the sender.
+   * @param receiver the receiver.
+   * @param action the action id.
+   * @return the route.
+   */
+  private Route getOrCreateRoute(final DeviceId sender, final DeviceId receiver,
+      final ActionId action) {
+    final int i = index(sender, receiver, action);
+    Route route = routes.get(i);
+    if (route == null) {
+      routes.compareAndSet(i, null, new Route(sender, receiver, action));
+      route = routes.get(i);
+    }
+    return route;
+  }
+
+  /**
+   * Get the queue latency histogram of a route.
+   *
+   * @param sender the sender.
+   * @param receiver the receiver.
+   * @param action the action id.
+   * @return the histogram, null if the route has not been traced.
+   */
+  public TimingHistogram getQueueLatency(final DeviceId sender, final DeviceId receiver,
+      final ActionId action) {
+    final Route route = routes.get(index(sender, receiver, action));
+    return route == null ? null : route.queue;
+  }
+
+  /**
+   * Get the handling latency histogram of a route.
+   *
+   * @param sender the sender.
+   * @param receiver the receiver.
+   * @param action the action id.
+   * @return the histogram, null if the route has not been traced.
+   */
+  public TimingHistogram getHandleLatency(final DeviceId sender, final DeviceId receiver,
+      final ActionId action) {
+    final Route route = routes.get(index(sender, receiver, action));
+    return route == null ? null : route.handle;
+  }
+
+  /**
+   * Get the sample age histogram of a topic.
+   *
+   * @param topic the action id of the topic.
+   * @return the histogram.
+   */
+  public TimingHistogram getSampleAge(final ActionId topic) {
+    return topics[topic.ordinal()];
+  }
+
+  /**
+   * Discard all recorded latencies.
+   */
+  public void reset() {
+    for (int i = 0; i < routes.length(); i++) {
+      final Route route = routes.get(i);
+      if (route != null) {
+        route.queue.reset();
+        route.handle.reset();
+      }
+    }
+    for (final TimingHistogram h : topics) {
+      h.reset();
+    }
+  }
+
+  /**
+   * Get a multi line summary of every traced route and topic.
+   *
+   * @return the summary.
+   */
+  public String summary() {
+    final StringBuilder sb = new StringBuilder("Message latency (")
+        .append(enabled ? "enabled" : "disabled").append(')');
+    for (int i = 0; i < routes.length(); i++) {
+      final Route route = routes.get(i);
+      if (route != null && route.queue.getCount() > 0) {
+        sb.append(System.lineSeparator()).append(route.sender).append("->")
+            .append(route.receiver).append(' ').append(route.action)
+            .append(" queue ").append(route.queue.summary())
+            .append(" handle ").append(route.handle.summary());
+      }
+    }
+    for (int i = 0; i < ACTIONS; i++) {
+      if (topics[i].getCount() > 0) {
+        sb.append(System.lineSeparator()).append("topic ").append(ActionId.values()[i])
+            .append(" age ").append(topics[i].summary());
+      }
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public String toString() {
+    return summary();
+  }
+
+  /**
+   * Latency histograms of one sender, receiver and action.
+   */
+  private static final class Route {
+
+    /**
+     * The sender.
+     */
+    private final DeviceId sender;
+
+    /**
+     * The receiver.
+     */
+    private final DeviceId receiver;
+
+    /**
+     * The action id.
+     */
+    private final ActionId action;
+
+    /**
+     * Posted to drained latency.
+     */
+    private final TimingHistogram queue = new TimingHistogram();
+
+    /**
+     * Drained to handled latency.
+     */
+    private final TimingHistogram handle = new TimingHistogram();
+
+    /**
+     * Create a new route.
+     *
+     * @param sender the sender.
+     * @param receiver the receiver.
+     * @param action the action id.
+     */
+    private Route(final DeviceId sender, final DeviceId receiver, final ActionId action) {
+      this.sender = sender;
+      this.receiver = receiver;
+      this.action = action;
+    }
+  }
+}
@@ -20,6 +20,11 @@ public class Motor extends Device {
    */
   private int currentSpeed;
 
+  /**
+   * The speed last shown on the display.
+   */
+  private int displayedSpeed = Integer.MIN_VALUE;
+
   /**
    * PWM Control pin.
    */
@@ -39,7 +44,15 @@ public class Motor extends Device {
   @Override
   protected void update() {
     super.update();
-    setDisplay("Current speed of " + getId() + " is: " + currentSpeed + "%.");
+    if (currentSpeed != displayedSpeed) {
+      final long wait = claimStatusDisplay();
+      if (wait == 0) {
+        displayedSpeed = currentSpeed;
+        setDisplay("Current speed of " + getId() + " is: " + currentSpeed + "%.");
+      } else {
+        wakeAfter(wait);
+      }
+    }
   }
 
   @Override
@@ -75,6 +88,14 @@ public class Motor extends Device {
     pwm.setSpeed(currentSpeed);
   }
 
+  /**
+   * Write the watchdog safe pulse width directly to the PWM output.
+   */
+  @Override
+  public void failSafe() {
+    setPulseWidth(Constants.WATCHDOG_SAFE_PULSE_WIDTH);
+  }
+
   private void setPulseWidth(final int width) {
     currentSpeed = (width - 1000) / 10;
     pwm.pwmWrite(width);
@@ -99,6 +120,21 @@ public class Motor extends Device {
     LOGGER.debug("Current speed of " + getId() + " is: " + currentSpeed + "%.");
   }
 
+  @Override
+  public boolean isEventDriven() {
+    return true;
+  }
+
+  @Override
+  public Stage getStage() {
+    return Stage.ACTUATOR;
+  }
+
+  @Override
+  public RateGroup getRateGroup() {
+    return RateGroup.CONTROL;
+  }
+
   @Override
   public boolean selfTest() {
     return true;
@@ -2,9 +2,12 @@ package com.onyx.quadcopter.devices;
 
 import java.io.IOException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.onyx.common.concurrent.ConflatingTopic;
 import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.ActionId;
 import com.onyx.common.messaging.DeviceId;
 import com.onyx.common.utils.Constants;
 import com.onyx.common.utils.ExceptionUtils;
@@ -16,6 +19,11 @@ import com.pi4j.io.i2c.I2CFactory.UnsupportedBusNumberException;
 
 /**
  * Represents an OLED Device.
+ * The orientation is read from the latest value topic of
+ * {@link ActionId#ORIENT} rather than subscribed to, so the display always
+ * shows the newest sample and IMU rate traffic never fills its mailbox.
+ * As the device is event driven it sets a timer to read the topic again
+ * every {@link Constants#OLED_REFRESH_PERIOD} when no message arrives.
  * 
  * @author fred
  *
@@ -40,6 +48,11 @@ public class OledDevice extends Device {
 
   private int iterationCount;
 
+  /**
+   * The last orientation sample read.
+   */
+  private final ConflatingTopic.Sample orientation = new ConflatingTopic.Sample(3);
+
   /**
    * Creates a new OLED Device.
    */
@@ -75,6 +88,20 @@ public class OledDevice extends Device {
     }
   }
 
+  @Override
+  protected void update() {
+    super.update();
+    if (getController().getBlackboard().getTopic(ActionId.ORIENT).readIfNewer(orientation)) {
+      if (msgs.size() >= Constants.OLED_MAX_MSGS) {
+        msgs.clear();
+      }
+      msgs.put(DeviceId.GYRO_MAG_ACC, "Yaw: " + orientation.get(0) + System.lineSeparator()
+          + "Pitch: " + orientation.get(1) + System.lineSeparator()
+          + "Roll: " + orientation.get(2));
+    }
+    wakeAfter(TimeUnit.MILLISECONDS.toNanos(Constants.OLED_REFRESH_PERIOD));
+  }
+
   @Override
   protected void init() {
     try {
@@ -83,6 +110,7 @@ public class OledDevice extends Device {
       oled.begin();
       oled.dim(false);
       oled.write("OLED Initialized.");
+      wakeAfter(0);
     } catch (IOException | ReflectiveOperationException e1) {
       ExceptionUtils.logError(getClass(), e1);
     } catch (UnsupportedBusNumberException e) {
@@ -119,6 +147,26 @@ public class OledDevice extends Device {
   @Override
   protected void alternate() {}
 
+  @Override
+  public boolean isEventDriven() {
+    return true;
+  }
+
+  @Override
+  public OverflowPolicy getOverflowPolicy() {
+    return OverflowPolicy.CONFLATE;
+  }
+
+  @Override
+  public RateGroup getRateGroup() {
+    return RateGroup.DISPLAY;
+  }
+
+  @Override
+  public ExecutionMode getExecutionMode() {
+    return ExecutionMode.IO;
+  }
+
   @Override
   public boolean selfTest() {
     return true;
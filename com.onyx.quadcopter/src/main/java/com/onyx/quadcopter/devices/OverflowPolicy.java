@@ -0,0 +1,37 @@
+package com.onyx.quadcopter.devices;
+
+import com.onyx.common.messaging.AclPriority;
+
+/**
+ * What a device {@link Mailbox} does with a message when it is full.
+ * {@link AclPriority#MAX} messages are never evicted by any policy.
+ *
+ * @author fred
+ *
+ */
+public enum OverflowPolicy {
+
+  /**
+   * Evict the oldest message.
+   */
+  DROP_OLDEST,
+
+  /**
+   * Evict the oldest message of the lowest priority, unless the new message
+   * has a lower priority still in which case the new message is dropped.
+   */
+  DROP_LOWEST_PRIORITY,
+
+  /**
+   * A new message replaces a queued message with the same sender, priority
+   * and {@link com.onyx.common.messaging.ActionId} whether or not the mailbox is
+   * full. If there is none and the mailbox is full it behaves as
+   * {@link #DROP_LOWEST_PRIORITY}.
+   */
+  CONFLATE,
+
+  /**
+   * Drop the new message.
+   */
+  REJECT;
+}
@@ -0,0 +1,93 @@
+package com.onyx.quadcopter.devices;
+
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.MessageType;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>Requests of a device which are waiting for a reply, keyed by
+ * correlation id.</p>
+ * <p>A request is completed by the first {@link MessageType#REPLY} carrying
+ * its correlation id, failed with a {@link TimeoutException} once it times
+ * out, whichever happens first.</p>
+ *
+ * @author fred
+ *
+ */
+final class PendingReplies {
+
+  /**
+   * Futures of outstanding requests by correlation id.
+   */
+  private final ConcurrentMap<Long, CompletableFuture<AclMessage>> pending =
+      new ConcurrentHashMap<Long, CompletableFuture<AclMessage>>();
+
+  /**
+   * Register a new request.
+   *
+   * @param correlationId the correlation id of the request.
+   * @return the future completed by the reply.
+   */
+  CompletableFuture<AclMessage> register(final long correlationId) {
+    final CompletableFuture<AclMessage> future = new CompletableFuture<AclMessage>();
+    pending.put(correlationId, future);
+    return future;
+  }
+
+  /**
+   * Complete the request a reply answers. The future receives an unpooled
+   * copy so the caller keeps ownership of the reply.
+   *
+   * @param reply the reply.
+   * @return true if the reply matched an outstanding request.
+   */
+  boolean complete(final AclMessage reply) {
+    if (reply.getMessageType() != MessageType.REPLY || reply.getCorrelationId() == 0) {
+      return false;
+    }
+    final CompletableFuture<AclMessage> future = pending.remove(reply.getCorrelationId());
+    if (future == null) {
+      return false;
+    }
+    future.complete(
+        new AclMessage(reply.getMessageType(), reply.getActionId()).copyFrom(reply));
+    return true;
+  }
+
+  /**
+   * Fail an outstanding request.
+   *
+   * @param correlationId the correlation id of the request.
+   * @param cause the failure.
+   */
+  void fail(final long correlationId, final Throwable cause) {
+    final CompletableFuture<AclMessage> future = pending.remove(correlationId);
+    if (future != null) {
+      future.completeExceptionally(cause);
+    }
+  }
+
+  /**
+   * Fail every outstanding request.
+   *
+   * @param cause the failure.
+   */
+  void failAll(final Throwable cause) {
+    for (final Long id : pending.keySet()) {
+      fail(id, cause);
+    }
+  }
+
+  /**
+   * Get the number of outstanding requests.
+   *
+   * @return the number of requests waiting for a reply.
+   */
+  int size() {
+    return pending.size();
+  }
+}
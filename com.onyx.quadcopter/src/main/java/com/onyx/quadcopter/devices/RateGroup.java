@@ -0,0 +1,93 @@
+package com.onyx.quadcopter.devices;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Rate group of a {@link Device}.</p>
+ * <p>A device is executed at the frequency of its rate group rather than on
+ * every controller tick. Each group is offset by its own phase so slow
+ * groups do not all land on the same tick.</p>
+ *
+ * @author fred
+ *
+ */
+public enum RateGroup {
+
+  /**
+   * Inertial sensors, run on every tick.
+   */
+  IMU(1000),
+
+  /**
+   * Attitude control and motor output.
+   */
+  CONTROL(500),
+
+  /**
+   * Ground station communication.
+   */
+  COMMS(50),
+
+  /**
+   * GPS and navigation.
+   */
+  NAVIGATION(10),
+
+  /**
+   * Display output.
+   */
+  DISPLAY(5);
+
+  /**
+   * Group frequency in hertz.
+   */
+  private final long frequency;
+
+  /**
+   * Create a rate group.
+   *
+   * @param frequency the frequency in hertz.
+   */
+  RateGroup(final long frequency) {
+    this.frequency = frequency;
+  }
+
+  /**
+   * Get the frequency of this group.
+   *
+   * @return the frequency in hertz.
+   */
+  public long getFrequency() {
+    return frequency;
+  }
+
+  /**
+   * Get the period of this group.
+   *
+   * @return the period in nanoseconds.
+   */
+  public long getPeriodNanos() {
+    return TimeUnit.SECONDS.toNanos(1) / frequency;
+  }
+
+  /**
+   * Get the number of ticks between executions of this group.
+   *
+   * @param tickFrequency the frequency of the scheduling loop in hertz.
+   * @return the tick divisor, at least 1.
+   */
+  public int getDivisor(final long tickFrequency) {
+    return (int) Math.max(1, Math.round((double) tickFrequency / frequency));
+  }
+
+  /**
+   * Get the tick offset of this group, staggered by group so slow groups
+   * execute on different ticks.
+   *
+   * @param tickFrequency the frequency of the scheduling loop in hertz.
+   * @return the phase of this group in ticks.
+   */
+  public int getPhase(final long tickFrequency) {
+    return ordinal() % getDivisor(tickFrequency);
+  }
+}
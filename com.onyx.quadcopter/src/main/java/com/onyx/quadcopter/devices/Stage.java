@@ -0,0 +1,46 @@
+package com.onyx.quadcopter.devices;
+
+/**
+ * Execution stage of a {@link Device} within a single controller tick.
+ * Stages run in declaration order so data produced by one stage is
+ * consumed by the next stage during the same tick.
+ *
+ * @author fred
+ *
+ */
+public enum Stage {
+
+  /**
+   * Sensors sample hardware and publish raw data.
+   */
+  SENSOR,
+
+  /**
+   * Estimators fuse sensor data into state estimates.
+   */
+  ESTIMATOR,
+
+  /**
+   * Controllers compute actuator commands from the estimated state.
+   */
+  CONTROL,
+
+  /**
+   * Actuators apply commands to the hardware.
+   */
+  ACTUATOR,
+
+  /**
+   * Slow input and output devices, these are not flight critical.
+   */
+  IO;
+
+  /**
+   * Return true if devices in this stage are flight critical.
+   *
+   * @return true if this stage runs on the flight control loop.
+   */
+  public boolean isFlightCritical() {
+    return this != IO;
+  }
+}
@@ -19,7 +19,7 @@ import org.slf4j.LoggerFactory;
  * @author fred
  *
  */
-public final class AppStart extends Thread {
+public final class AppStart implements Runnable {
 
   /**
    * Logger.
@@ -0,0 +1,312 @@
+package com.onyx.quadcopter.main;
+
+import com.onyx.common.utils.Constants;
+import com.onyx.quadcopter.utils.Clock;
+import com.onyx.quadcopter.utils.SimulatedClock;
+import com.onyx.quadcopter.utils.SystemClock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Dedicated real-time control loop.</p>
+ * <p>Runs a single tick on its own platform thread against absolute
+ * deadlines derived from {@link System#nanoTime()}. The loop parks until
+ * shortly before each deadline and then spins the remainder so the tick
+ * starts with bounded jitter. If a tick overruns, missed deadlines are
+ * skipped rather than executed back to back.</p>
+ * <p>Deadlines are read from a {@link Clock}. With a {@link SimulatedClock}
+ * the loop does not wait, it advances the clock to each deadline and runs
+ * the next tick immediately.</p>
+ *
+ * @author fred
+ *
+ */
+public final class ControlLoop {
+
+  /**
+   * Logger.
+   */
+  public static final Logger LOGGER = LoggerFactory.getLogger(ControlLoop.class);
+
+  /**
+   * Name of the control loop thread.
+   */
+  private static final String THREAD_NAME = "onyx-control-loop";
+
+  /**
+   * The work performed each tick.
+   */
+  private final Runnable tick;
+
+  /**
+   * Loop period in nanoseconds.
+   */
+  private final long periodNanos;
+
+  /**
+   * Spin window before each deadline in nanoseconds.
+   */
+  private final long spinNanos;
+
+  /**
+   * True while the loop is running.
+   */
+  private volatile boolean running = false;
+
+  /**
+   * The control loop thread.
+   */
+  private Thread thread;
+
+  /**
+   * Number of ticks executed.
+   */
+  private volatile long tickCount = 0;
+
+  /**
+   * Number of deadlines missed due to overruns.
+   */
+  private volatile long missedDeadlines = 0;
+
+  /**
+   * Tick timing instrumentation.
+   */
+  private final LoopMetrics metrics;
+
+  /**
+   * The clock deadlines are read from.
+   */
+  private Clock clock;
+
+  /**
+   * Create a new control loop.
+   *
+   * @param tick the work to run every period.
+   * @param periodNanos the loop period in nanoseconds.
+   * @param spinNanos how long before each deadline to begin spinning.
+   * @param clock the clock deadlines are read from.
+   */
+  public ControlLoop(final Runnable tick, final long periodNanos, final long spinNanos,
+      final Clock clock) {
+    if (tick == null || periodNanos <= 0 || clock == null) {
+      throw new IllegalArgumentException("Invalid control loop configuration.");
+    }
+    this.tick = tick;
+    this.periodNanos = periodNanos;
+    this.spinNanos = Math.max(0, Math.min(spinNanos, periodNanos));
+    this.metrics = new LoopMetrics("Control", periodNanos);
+    this.clock = clock;
+  }
+
+  /**
+   * Create a new real time control loop.
+   *
+   * @param tick the work to run every period.
+   * @param periodNanos the loop period in nanoseconds.
+   * @param spinNanos how long before each deadline to begin spinning.
+   */
+  public ControlLoop(final Runnable tick, final long periodNanos, final long spinNanos) {
+    this(tick, periodNanos, spinNanos, SystemClock.INSTANCE);
+  }
+
+  /**
+   * Create a new control loop using the configured frequency.
+   *
+   * @param tick the work to run every period.
+   */
+  public ControlLoop(final Runnable tick) {
+    this(tick, Constants.CONTROL_LOOP_PERIOD_NANOS,
+        TimeUnit.MICROSECONDS.toNanos(Constants.CONTROL_LOOP_SPIN));
+  }
+
+  /**
+   * Change the clock of this loop, the loop must not be running.
+   *
+   * @param clock the new clock.
+   */
+  public synchronized void setClock(final Clock clock) {
+    if (running) {
+      throw new IllegalStateException("Cannot change the clock of a running control loop.");
+    }
+    if (clock != null) {
+      this.clock = clock;
+    }
+  }
+
+  /**
+   * Get the clock of this loop.
+   *
+   * @return the clock.
+   */
+  public Clock getClock() {
+    return clock;
+  }
+
+  /**
+   * Start the control loop thread.
+   *
+   * @param delay the delay before the first tick.
+   * @param unit the time unit of delay.
+   */
+  public synchronized void start(final long delay, final TimeUnit unit) {
+    if (running) {
+      return;
+    }
+    running = true;
+    final long firstDeadline = clock.nanoTime() + unit.toNanos(delay);
+    thread = new Thread(() -> loop(firstDeadline), THREAD_NAME);
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MAX_PRIORITY);
+    thread.start();
+    LOGGER.debug("Control loop started at " + getFrequency() + "Hz.");
+  }
+
+  /**
+   * Stop the control loop and wait up to one period for the current tick to
+   * complete.
+   *
+   * @return true if the loop thread has exited.
+   */
+  public synchronized boolean stop() {
+    return stop(TimeUnit.NANOSECONDS.toMillis(periodNanos) + 1);
+  }
+
+  /**
+   * Stop the control loop and wait for the current tick to complete.
+   *
+   * @param timeoutMillis the longest time to wait in milliseconds.
+   * @return true if the loop thread has exited.
+   */
+  public synchronized boolean stop(final long timeoutMillis) {
+    running = false;
+    boolean stopped = true;
+    if (thread != null) {
+      LockSupport.unpark(thread);
+      if (thread != Thread.currentThread()) {
+        try {
+          thread.join(timeoutMillis);
+        } catch (InterruptedException e1) {
+          Thread.currentThread().interrupt();
+        }
+        stopped = !thread.isAlive();
+      }
+      thread = null;
+    }
+    LOGGER.debug("Control loop stopped after " + tickCount + " ticks, "
+        + missedDeadlines + " missed deadlines.");
+    return stopped;
+  }
+
+  /**
+   * Run ticks until stopped.
+   *
+   * @param firstDeadline the absolute time of the first tick.
+   */
+  private void loop(final long firstDeadline) {
+    long deadline = firstDeadline;
+    while (running) {
+      if (!waitUntil(deadline)) {
+        break;
+      }
+      final long lateness = clock.nanoTime() - deadline;
+      final long start = System.nanoTime();
+      try {
+        tick.run();
+      } catch (Throwable t1) {
+        LOGGER.error("Control loop tick failed: " + t1.getMessage());
+      }
+      metrics.recordTick(lateness, System.nanoTime() - start);
+      tickCount++;
+      deadline += periodNanos;
+      final long late = clock.nanoTime() - deadline;
+      if (late > 0) {
+        final long missed = late / periodNanos + 1;
+        missedDeadlines += missed;
+        deadline += missed * periodNanos;
+      }
+    }
+  }
+
+  /**
+   * Park until shortly before the deadline then spin until it is reached.
+   *
+   * @param deadline the absolute deadline in nanoseconds.
+   * @return false if the loop was stopped or interrupted while waiting.
+   */
+  private boolean waitUntil(final long deadline) {
+    if (clock instanceof SimulatedClock) {
+      ((SimulatedClock) clock).advanceTo(deadline);
+      return running;
+    }
+    long remaining = deadline - System.nanoTime();
+    while (remaining > spinNanos) {
+      LockSupport.parkNanos(this, remaining - spinNanos);
+      if (!running || Thread.currentThread().isInterrupted()) {
+        return false;
+      }
+      remaining = deadline - System.nanoTime();
+    }
+    while (deadline - System.nanoTime() > 0) {
+      // Spin out the remainder of the period.
+    }
+    return running;
+  }
+
+  /**
+   * Return true if the loop is running.
+   *
+   * @return true if the loop is running.
+   */
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Get the loop period.
+   *
+   * @return the period in nanoseconds.
+   */
+  public long getPeriodNanos() {
+    return periodNanos;
+  }
+
+  /**
+   * Get the loop frequency.
+   *
+   * @return the frequency in hertz.
+   */
+  public long getFrequency() {
+    return TimeUnit.SECONDS.toNanos(1) / periodNanos;
+  }
+
+  /**
+   * Get the number of ticks executed.
+   *
+   * @return the tick count.
+   */
+  public long getTickCount() {
+    return tickCount;
+  }
+
+  /**
+   * Get the tick timing instrumentation of this loop.
+   *
+   * @return the loop metrics.
+   */
+  public LoopMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Get the number of deadlines missed.
+   *
+   * @return the number of missed deadlines.
+   */
+  public long getMissedDeadlines() {
+    return missedDeadlines;
+  }
+}
@@ -0,0 +1,282 @@
+package com.onyx.quadcopter.main;
+
+import com.onyx.common.utils.Constants;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Deadline watchdog for the {@link ControlLoop}.</p>
+ * <p>Runs on its own platform thread and samples the control loop tick count
+ * once per loop period of real time. When no tick has completed for the
+ * configured number of consecutive deadlines the fail safe action is run
+ * once, directly from the watchdog thread, and the intervention is recorded.
+ * The watchdog arms after the first tick and re-arms as soon as the
+ * control loop ticks again.</p>
+ *
+ * @author fred
+ *
+ */
+public final class ControlLoopWatchdog {
+
+  /**
+   * Logger.
+   */
+  public static final Logger LOGGER = LoggerFactory.getLogger(ControlLoopWatchdog.class);
+
+  /**
+   * Name of the watchdog thread.
+   */
+  private static final String THREAD_NAME = "onyx-watchdog";
+
+  /**
+   * The loop being watched.
+   */
+  private final ControlLoop loop;
+
+  /**
+   * Action which drives the outputs to a safe state.
+   */
+  private final Runnable failSafe;
+
+  /**
+   * Stall time after which the fail safe action is run, in nanoseconds.
+   */
+  private final long timeoutNanos;
+
+  /**
+   * Most recent interventions, oldest overwritten first.
+   */
+  private final Intervention[] history = new Intervention[Constants.WATCHDOG_HISTORY];
+
+  /**
+   * Total number of interventions.
+   */
+  private volatile long interventions = 0;
+
+  /**
+   * True while the watchdog is running.
+   */
+  private volatile boolean running = false;
+
+  /**
+   * The watchdog thread.
+   */
+  private Thread thread;
+
+  /**
+   * A single watchdog intervention.
+   */
+  public static final class Intervention {
+
+    /**
+     * Time the fail safe was applied, in nanoseconds.
+     */
+    private final long time;
+
+    /**
+     * How long the loop had stalled when the fail safe was applied, in nanoseconds.
+     */
+    private final long stall;
+
+    /**
+     * How long the fail safe action took, in nanoseconds.
+     */
+    private final long duration;
+
+    /**
+     * Control loop tick count at the stall.
+     */
+    private final long tick;
+
+    /**
+     * Create an intervention record.
+     *
+     * @param time the time the fail safe was applied.
+     * @param stall the stall duration.
+     * @param duration the fail safe action duration.
+     * @param tick the tick count at the stall.
+     */
+    Intervention(final long time, final long stall, final long duration, final long tick) {
+      this.time = time;
+      this.stall = stall;
+      this.duration = duration;
+      this.tick = tick;
+    }
+
+    /**
+     * Get the time the fail safe was applied.
+     *
+     * @return the time in nanoseconds.
+     */
+    public long getTime() {
+      return time;
+    }
+
+    /**
+     * Get how long the loop had stalled.
+     *
+     * @return the stall in nanoseconds.
+     */
+    public long getStall() {
+      return stall;
+    }
+
+    /**
+     * Get how long the fail safe action took.
+     *
+     * @return the duration in nanoseconds.
+     */
+    public long getDuration() {
+      return duration;
+    }
+
+    /**
+     * Get the control loop tick count at the stall.
+     *
+     * @return the tick count.
+     */
+    public long getTick() {
+      return tick;
+    }
+
+    @Override
+    public String toString() {
+      return "tick " + tick + " stalled " + TimeUnit.NANOSECONDS.toMicros(stall)
+          + "us, fail safe took " + TimeUnit.NANOSECONDS.toMicros(duration) + "us";
+    }
+  }
+
+  /**
+   * Create a new watchdog.
+   *
+   * @param loop the control loop to watch.
+   * @param failSafe the action run when the loop stalls.
+   * @param missedDeadlines consecutive missed deadlines before the fail safe is run.
+   */
+  public ControlLoopWatchdog(final ControlLoop loop, final Runnable failSafe,
+      final int missedDeadlines) {
+    this.loop = loop;
+    this.failSafe = failSafe;
+    this.timeoutNanos = loop.getPeriodNanos() * Math.max(1, missedDeadlines);
+  }
+
+  /**
+   * Create a new watchdog using the configured number of missed deadlines.
+   *
+   * @param loop the control loop to watch.
+   * @param failSafe the action run when the loop stalls.
+   */
+  public ControlLoopWatchdog(final ControlLoop loop, final Runnable failSafe) {
+    this(loop, failSafe, Constants.WATCHDOG_MISSED_DEADLINES);
+  }
+
+  /**
+   * Start the watchdog thread.
+   */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    thread = new Thread(this::watch, THREAD_NAME);
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MAX_PRIORITY);
+    thread.start();
+  }
+
+  /**
+   * Stop the watchdog thread.
+   */
+  public synchronized void stop() {
+    running = false;
+    if (thread != null) {
+      LockSupport.unpark(thread);
+      thread = null;
+    }
+  }
+
+  /**
+   * Sample the control loop heartbeat until stopped.
+   */
+  private void watch() {
+    long lastTick = loop.getTickCount();
+    long lastBeat = System.nanoTime();
+    boolean tripped = false;
+    while (running) {
+      LockSupport.parkNanos(this, loop.getPeriodNanos());
+      final long now = System.nanoTime();
+      final long tick = loop.getTickCount();
+      if (tick != lastTick || tick == 0 || !loop.isRunning()) {
+        if (tripped) {
+          LOGGER.info("Control loop recovered after "
+              + TimeUnit.NANOSECONDS.toMillis(now - lastBeat) + "ms.");
+        }
+        lastTick = tick;
+        lastBeat = now;
+        tripped = false;
+      } else if (!tripped && now - lastBeat >= timeoutNanos) {
+        tripped = true;
+        intervene(tick, now - lastBeat);
+      }
+    }
+  }
+
+  /**
+   * Run the fail safe action and record the intervention.
+   *
+   * @param tick the tick count at the stall.
+   * @param stall how long the loop has stalled in nanoseconds.
+   */
+  private void intervene(final long tick, final long stall) {
+    final long start = System.nanoTime();
+    try {
+      failSafe.run();
+    } catch (Throwable t1) {
+      LOGGER.error("Watchdog fail safe failed: " + t1.getMessage());
+    }
+    final Intervention record = new Intervention(start, stall, System.nanoTime() - start, tick);
+    synchronized (history) {
+      history[(int) (interventions % history.length)] = record;
+      interventions++;
+    }
+    LOGGER.error("Control loop stalled, watchdog applied fail safe: " + record);
+  }
+
+  /**
+   * Get the total number of interventions.
+   *
+   * @return the intervention count.
+   */
+  public long getInterventionCount() {
+    return interventions;
+  }
+
+  /**
+   * Get the most recent interventions, oldest first.
+   *
+   * @return a copy of the intervention history.
+   */
+  public Intervention[] getInterventions() {
+    synchronized (history) {
+      final int size = (int) Math.min(interventions, history.length);
+      final Intervention[] copy = new Intervention[size];
+      for (int i = 0; i < size; i++) {
+        copy[i] = history[(int) ((interventions - size + i) % history.length)];
+      }
+      return copy;
+    }
+  }
+
+  /**
+   * Return true if the watchdog is running.
+   *
+   * @return true if running.
+   */
+  public boolean isRunning() {
+    return running;
+  }
+}
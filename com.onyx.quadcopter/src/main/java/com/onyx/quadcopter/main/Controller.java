@@ -1,34 +1,44 @@
 package com.onyx.quadcopter.main;
 
-import com.google.common.collect.MapMaker;
-
 import com.onyx.common.messaging.AclMessage;
 import com.onyx.common.messaging.AclPriority;
 import com.onyx.common.messaging.ActionId;
 import com.onyx.common.messaging.DeviceId;
 import com.onyx.common.utils.Constants;
 import com.onyx.quadcopter.communication.OnyxServer;
+import com.onyx.quadcopter.communication.SharedMemoryBridge;
 import com.onyx.quadcopter.control.PidController;
 import com.onyx.quadcopter.control.RedButton;
 import com.onyx.quadcopter.devices.Blackboard;
+import com.onyx.quadcopter.devices.BlackboardJournal;
 import com.onyx.quadcopter.devices.Device;
 import com.onyx.quadcopter.devices.GpsDevice;
 import com.onyx.quadcopter.devices.GyroMagAcc;
+import com.onyx.quadcopter.devices.Mailbox;
+import com.onyx.quadcopter.devices.MessageTracer;
 import com.onyx.quadcopter.devices.Motor;
 import com.onyx.quadcopter.devices.OledDevice;
 import com.onyx.quadcopter.tasks.Task;
 import com.onyx.quadcopter.utils.Cleaner;
+import com.onyx.quadcopter.utils.Clock;
+import com.onyx.quadcopter.utils.SimulatedClock;
+import com.onyx.quadcopter.utils.SystemClock;
 import com.pi4j.io.gpio.GpioController;
 import com.pi4j.io.gpio.GpioFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.concurrent.ConcurrentMap;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 
 /**
@@ -55,19 +65,36 @@ public final class Controller extends Device implements Runnable {
   public static final Logger LOGGER = LoggerFactory.getLogger(Controller.class);
 
   /**
-   * Devices array.
+   * Device registry indexed by device id ordinal.
+   */
+  private final AtomicReferenceArray<Device> devices;
+
+  /**
+   * Snapshot of the registered devices, rebuilt when devices are added or removed.
    */
-  private ConcurrentMap<DeviceId, Device> devices;
+  private volatile List<Device> deviceList = Collections.emptyList();
 
   /**
-   * Number of devices.
+   * Guards changes to the device registry and the execution plans.
    */
-  private int deviceCount = 0;
+  private final Object registryLock = new Object();
 
   /**
    * Blackboard instance.
    */
-  private Blackboard blackboard;
+  private final Blackboard blackboard = new Blackboard();
+
+  /**
+   * Journal of blackboard messages, null unless journaling is enabled.
+   */
+  private volatile BlackboardJournal journal;
+
+  /**
+   * Executor for devices in I/O mode, null until set with
+   * {@link #setIoExecutor(ExecutorService)}, in which case they run on the
+   * thread executing the plan.
+   */
+  private volatile ExecutorService ioExecutor;
 
   /**
    * Object tasked with cleanup after shutdown.
@@ -77,7 +104,7 @@ public final class Controller extends Device implements Runnable {
   /**
    * True if the controller is running.
    */
-  private boolean isRunning = false;
+  private volatile boolean isRunning = false;
 
   /**
    * GPIO Controller.
@@ -89,6 +116,64 @@ public final class Controller extends Device implements Runnable {
    */
   private OnyxServer commServer;
 
+  /**
+   * Dedicated loop executing the flight critical devices.
+   */
+  private final ControlLoop controlLoop;
+
+  /**
+   * Watchdog applying the fail safe when the control loop stalls.
+   */
+  private final ControlLoopWatchdog watchdog;
+
+  /**
+   * Stage ordered plan of the flight critical devices.
+   */
+  private volatile ExecutionPlan flightPlan;
+
+  /**
+   * Stage ordered plan of the remaining I/O devices.
+   */
+  private volatile ExecutionPlan ioPlan;
+
+  /**
+   * Number of background ticks executed.
+   */
+  private long backgroundTicks = 0;
+
+  /**
+   * Ideal start time of the next background tick.
+   */
+  private long backgroundDeadline = 0;
+
+  /**
+   * True once the background deadline has been aligned to the clock.
+   */
+  private boolean backgroundSynced = false;
+
+  /**
+   * Background loop period in nanoseconds.
+   */
+  private final long backgroundPeriod =
+      Constants.CONTROLLER_TIMEUNIT.toNanos(Constants.CONTROLLER_PERIOD);
+
+  /**
+   * The clock used for all timing decisions.
+   */
+  private volatile Clock clock =
+      Constants.SIMULATED_CLOCK ? new SimulatedClock() : SystemClock.INSTANCE;
+
+  /**
+   * Tick timing instrumentation of the background devices.
+   */
+  private final LoopMetrics backgroundMetrics = new LoopMetrics("Background",
+      backgroundPeriod);
+
+  /**
+   * True if the next status line displayed is the background one.
+   */
+  private boolean displayBackground;
+
   /**
    * Singleton Reference.
    */
@@ -99,8 +184,13 @@ public final class Controller extends Device implements Runnable {
    */
   private Controller() {
     super();
-    devices = new MapMaker().concurrencyLevel(Constants.NUM_THREADS)
-        .initialCapacity(Constants.MAX_DEVICES).makeMap();
+    devices = new AtomicReferenceArray<Device>(DeviceId.values().length);
+    controlLoop = new ControlLoop(this::controlTick);
+    controlLoop.setClock(clock);
+    watchdog = new ControlLoopWatchdog(controlLoop, this::failSafe);
+    synchronized (registryLock) {
+      rebuildPlans();
+    }
   }
 
   /**
@@ -117,9 +207,11 @@ public final class Controller extends Device implements Runnable {
 
   @Override
   protected void init() {
-    blackboard = new Blackboard();
+    if (Constants.JOURNAL_ENABLED) {
+      startJournal();
+    }
     commServer = new OnyxServer();
-    Main.COORDINATOR.schedule(commServer, 0, TimeUnit.SECONDS);
+    IoExecutors.startThread("comm-server", commServer);
     setGpio(GpioFactory.getInstance());
     cleaner = new Cleaner();
     addDevice(commServer);
@@ -132,32 +224,75 @@ public final class Controller extends Device implements Runnable {
     addDevice(new Motor(DeviceId.MOTOR3, Constants.GPIO_MOTOR3));
     addDevice(new Motor(DeviceId.MOTOR4, Constants.GPIO_MOTOR4));
     addDevice(new PidController());
-    devices.values()
-      .parallelStream()
-      .filter(e -> !e.isInitialized())
-      .forEachOrdered(e -> e.initialize());
+    if (Constants.SHM_BRIDGE_ENABLED) {
+      addDevice(new SharedMemoryBridge());
+    }
+    for (final Device d : deviceList) {
+      if (!d.isInitialized()) {
+        d.initialize();
+      }
+    }
   }
 
   @Override
   public void shutdown() {
     LOGGER.debug("Starting Controller shutdown...");
+    stopJournal();
     blackboard.shutdown();
-    devices.values().parallelStream()
-        .filter(e -> e.isInitialized())
-        .forEachOrdered(d -> {
-          LOGGER.debug("Shutting down: " + d.toString());
-          d.shutdown();
-          cleaner.cleanUp(d);
-          LOGGER.debug("Shutdown complete for: " + d.toString());
-        });
+    final List<Device> registered = deviceList;
+    clearDevices();
+    for (final Device d : registered) {
+      if (d.isInitialized()) {
+        LOGGER.debug("Shutting down: " + d.toString());
+        d.shutdown();
+        d.cancelRequests();
+        cleaner.cleanUp(d);
+        LOGGER.debug("Shutdown complete for: " + d.toString());
+      }
+    }
+    final ExecutorService io = ioExecutor;
+    if (io != null) {
+      io.shutdown();
+    }
     gpio.shutdown();
-    devices.clear();
     cleaner.cleanUp(gpio);
     cleaner.cleanUp(devices);
     cleaner.doClean();
+    cancelRequests();
     LOGGER.debug("Controller shutdown complete.");
   }
 
+  /**
+   * Start journaling blackboard messages to the database.
+   */
+  private void startJournal() {
+    final BlackboardJournal j = new BlackboardJournal(Constants.DATABASE_FILE,
+        Constants.JOURNAL_QUEUE_SIZE, Constants.JOURNAL_BATCH_SIZE, clock);
+    try {
+      j.start();
+      journal = j;
+      blackboard.setTap(j);
+    } catch (SQLException e1) {
+      LOGGER.error("Blackboard journal disabled: " + e1.getMessage());
+    }
+  }
+
+  /**
+   * Stop journaling, writing every queued message first.
+   */
+  private void stopJournal() {
+    if (journal == null) {
+      return;
+    }
+    blackboard.setTap(null);
+    try {
+      journal.stop();
+    } catch (InterruptedException e1) {
+      Thread.currentThread().interrupt();
+    }
+    LOGGER.debug(journal.toString());
+  }
+
   /**
    * Return the blackboard.
    *
@@ -174,9 +309,12 @@ public final class Controller extends Device implements Runnable {
    */
   public void addDevice(final Device dev) {
     if (dev != null) {
-      if (deviceCount++ < Constants.MAX_DEVICES) {
-        devices.put(dev.getId(), dev);
-        LOGGER.debug("Device " + dev + " added to controller.");
+      synchronized (registryLock) {
+        if (deviceList.size() < Constants.MAX_DEVICES) {
+          devices.set(dev.getId().ordinal(), dev);
+          rebuildPlans();
+          LOGGER.debug("Device " + dev + " added to controller.");
+        }
       }
     }
   }
@@ -188,7 +326,7 @@ public final class Controller extends Device implements Runnable {
    * @return the device associated with deviceId d.
    */
   public Device getDevice(final DeviceId dev) {
-    return devices.get(dev);
+    return devices.get(dev.ordinal());
   }
 
   /**
@@ -197,35 +335,89 @@ public final class Controller extends Device implements Runnable {
    * @param deviceId the device to be removed.
    */
   public void removeDevice(final DeviceId deviceId) {
-    if (devices.containsKey(deviceId)) {
-      LOGGER.info("Removed device, " + getDevice(deviceId) + " from Controller.");
-      devices.remove(deviceId);
-    } else {
-      LOGGER.info("Device map does not contain DeviceID:" + deviceId + ".");
+    synchronized (registryLock) {
+      final Device removed = devices.getAndSet(deviceId.ordinal(), null);
+      if (removed != null) {
+        LOGGER.info("Removed device, " + removed + " from Controller.");
+        rebuildPlans();
+      } else {
+        LOGGER.info("Device map does not contain DeviceID:" + deviceId + ".");
+      }
     }
   }
 
+  /**
+   * Notify this controller that a device has completed initialization,
+   * the device is executed from the next tick onward.
+   *
+   * @param dev the initialized device.
+   */
+  public void deviceInitialized(final Device dev) {
+    synchronized (registryLock) {
+      if (getDevice(dev.getId()) == dev) {
+        rebuildPlans();
+      }
+    }
+  }
+
+  /**
+   * Remove all devices from the registry.
+   */
+  private void clearDevices() {
+    synchronized (registryLock) {
+      for (int i = 0; i < devices.length(); i++) {
+        devices.set(i, null);
+      }
+      rebuildPlans();
+    }
+  }
+
+  /**
+   * Rebuild the device snapshot and the execution plans after the device set has
+   * changed. Only initialized devices are included in the plans, so executing a
+   * plan does not allocate or filter devices per tick. Callers must hold the registry lock.
+   */
+  private void rebuildPlans() {
+    final ExecutorService io = ioExecutor;
+    final Executor executor = io == null ? Runnable::run : io;
+    final List<Device> registered = new ArrayList<Device>(devices.length());
+    for (int i = 0; i < devices.length(); i++) {
+      final Device dev = devices.get(i);
+      if (dev != null) {
+        registered.add(dev);
+      }
+    }
+    deviceList = Collections.unmodifiableList(registered);
+    flightPlan = new ExecutionPlan(registered, e -> e.isInitialized() && e.isFlightCritical(),
+        controlLoop.getFrequency(), controlLoop.getMetrics(), executor);
+    ioPlan = new ExecutionPlan(registered, e -> e.isInitialized() && !e.isFlightCritical(),
+        Constants.CONTROLLER_TIMEUNIT.convert(1, TimeUnit.SECONDS) / Constants.CONTROLLER_PERIOD,
+        backgroundMetrics, executor);
+    LOGGER.debug("Flight execution plan: " + flightPlan);
+    LOGGER.debug("Background execution plan: " + ioPlan);
+  }
+
   /**
    * Pause a running Controller.
    */
-  public synchronized void pause() {
+  public void pause() {
     isRunning = false;
   }
 
   /**
    * Resume a paused Controller.
    */
-  public synchronized void resume() {
+  public void resume() {
     isRunning = true;
   }
 
   /**
-   * Get device set.
+   * Get the registered devices.
    * 
-   * @return the set of devices.
+   * @return an immutable snapshot of the devices in device id order.
    */
-  public Set<Entry<DeviceId, Device>> getDevices() {
-    return devices.entrySet();
+  public List<Device> getDevices() {
+    return deviceList;
   }
 
   /**
@@ -233,7 +425,7 @@ public final class Controller extends Device implements Runnable {
    *
    * @return true if this Controller isRunning.
    */
-  public synchronized boolean isRunning() {
+  public boolean isRunning() {
     return isRunning;
   }
 
@@ -254,7 +446,21 @@ public final class Controller extends Device implements Runnable {
   }
 
   /**
-   * Execute a high level Task.
+   * Set the executor for devices in I/O mode, which is shut down with this
+   * controller. Must be called before the controller is initialized.
+   *
+   * @param executor the I/O executor.
+   */
+  public void setIoExecutor(final ExecutorService executor) {
+    synchronized (registryLock) {
+      ioExecutor = executor;
+      rebuildPlans();
+    }
+  }
+
+  /**
+   * Execute a high level Task on its own thread, tasks may block until the
+   * pilot acts.
    * 
    * @param task the task to execute.
    * @param <T> the return type of the task t.
@@ -262,22 +468,190 @@ public final class Controller extends Device implements Runnable {
    * @return the Future of task t.
    */
   public <T> Future<T> executeTask(final Task<T> task) {
-    return Main.COORDINATOR.submit(task);
+    final FutureTask<T> future = new FutureTask<T>(task);
+    IoExecutors.startThread("task-" + task.getName(), future);
+    return future;
   }
 
   @Override
-  protected void alternate() {}
+  protected void alternate() {
+    setDisplay(displayBackground ? backgroundMetrics.statusLine()
+        : controlLoop.getMetrics().statusLine());
+    displayBackground = !displayBackground;
+  }
 
   @Override
   public boolean selfTest() {
     return isInitialized();
   }
 
+  /**
+   * Get the dedicated flight control loop.
+   *
+   * @return the control loop.
+   */
+  public ControlLoop getControlLoop() {
+    return controlLoop;
+  }
+
+  /**
+   * Get the control loop watchdog.
+   *
+   * @return the watchdog.
+   */
+  public ControlLoopWatchdog getWatchdog() {
+    return watchdog;
+  }
+
+  /**
+   * Drive every device to its safe state, bypassing the blackboard.
+   */
+  @Override
+  public void failSafe() {
+    for (final Device dev : deviceList) {
+      if (dev.isInitialized()) {
+        dev.failSafe();
+      }
+    }
+  }
+
+  /**
+   * Get the timing instrumentation of the background devices.
+   *
+   * @return the background loop metrics.
+   */
+  public LoopMetrics getBackgroundMetrics() {
+    return backgroundMetrics;
+  }
+
+  /**
+   * Get a summary of the control and background loop timings.
+   *
+   * @return the timing summary.
+   */
+  public String getTimingSummary() {
+    return controlLoop.getMetrics().summary() + System.lineSeparator()
+        + "missed=" + controlLoop.getMissedDeadlines()
+        + " watchdog=" + watchdog.getInterventionCount() + System.lineSeparator()
+        + backgroundMetrics.summary() + System.lineSeparator()
+        + "messages " + blackboard.getPool() + " dropped=" + blackboard.getDropped()
+        + " droppedCritical=" + blackboard.getDroppedCritical() + getOverflowSummary()
+        + (journal == null ? "" : System.lineSeparator() + journal);
+  }
+
+  /**
+   * Get the overflow counters of every mailbox which has shed messages.
+   *
+   * @return one line per device, prefixed with a line separator.
+   */
+  private String getOverflowSummary() {
+    final StringBuilder sb = new StringBuilder();
+    for (final Device d : deviceList) {
+      final Mailbox mailbox = d.getMessages();
+      if (mailbox.getEvicted() + mailbox.getRejected() + mailbox.getConflated() > 0) {
+        sb.append(System.lineSeparator()).append(d.getId()).append(' ')
+            .append(mailbox.summary());
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Apply a tracing option and get the blackboard message latency summary.
+   *
+   * @param option enable, disable or reset, anything else only queries.
+   * @return the latency summary.
+   */
+  public String getLatencySummary(final String option) {
+    final MessageTracer tracer = blackboard.getTracer();
+    if ("enable".equals(option)) {
+      tracer.setEnabled(true);
+    } else if ("disable".equals(option)) {
+      tracer.setEnabled(false);
+    } else if ("reset".equals(option)) {
+      tracer.reset();
+    }
+    return tracer.summary();
+  }
+
+  /**
+   * Get the clock used for all timing decisions.
+   *
+   * @return the clock.
+   */
+  @Override
+  public Clock getClock() {
+    return clock;
+  }
+
+  /**
+   * Change the clock used for all timing decisions. Must be called before
+   * the control loop is started.
+   *
+   * @param clock the new clock.
+   */
+  public void setClock(final Clock clock) {
+    if (clock != null) {
+      controlLoop.setClock(clock);
+      this.clock = clock;
+    }
+  }
+
+  /**
+   * Return true if the background devices are driven in lock step by the
+   * control loop rather than by the coordinator, which is the case when
+   * running against a {@link SimulatedClock}.
+   *
+   * @return true if running in lock step.
+   */
+  public boolean isLockstep() {
+    return clock instanceof SimulatedClock;
+  }
+
+  /**
+   * Run one control loop tick. In lock step mode the background devices
+   * are also run every background period of simulated time.
+   */
+  private void controlTick() {
+    flightUpdate();
+    if (isLockstep()) {
+      final long divisor = Math.max(1, backgroundPeriod / controlLoop.getPeriodNanos());
+      if (controlLoop.getTickCount() % divisor == 0) {
+        run();
+      }
+    }
+  }
+
+  /**
+   * Run the devices which are not flight critical, see {@link #flightUpdate()}.
+   */
   @Override
   public void run() {
     if (isRunning() && isInitialized()) {
+      final long now = clock.nanoTime();
+      if (!backgroundSynced) {
+        backgroundDeadline = now;
+        backgroundSynced = true;
+      }
+      final long start = System.nanoTime();
       controllerUpdate();
       blackboard.update();
+      backgroundMetrics.recordTick(now - backgroundDeadline, System.nanoTime() - start);
+      backgroundDeadline += backgroundPeriod;
+    } else {
+      backgroundSynced = false;
+    }
+  }
+
+  /**
+   * Run one tick of the flight critical devices in stage order, sensors first
+   * and actuators last, so a sample reaches the motors within the same tick.
+   * Each device runs at the rate of its {@link com.onyx.quadcopter.devices.RateGroup}.
+   * Called only from the {@link ControlLoop} thread.
+   */
+  protected void flightUpdate() {
+    if (isRunning() && isInitialized()) {
+      flightPlan.execute(controlLoop.getTickCount());
     }
   }
 
@@ -289,14 +663,34 @@ public final class Controller extends Device implements Runnable {
             AclPriority.MAX);
         StateMonitor.shutdownState();
         break;
+      case GET_TIMING:
+        sendReply(getTimingSummary(), ActionId.SEND_DATA, AclPriority.MEDIUM);
+        break;
+      case GET_LATENCY:
+        sendReply(getLatencySummary(msg.getContent()), ActionId.SEND_DATA, AclPriority.MEDIUM);
+        break;
       default:
         break;
     }
   }
 
-  protected synchronized void controllerUpdate() {
-    devices.values().parallelStream().filter(e -> e.isInitialized()).forEach(e -> e.execute());
+  protected void controllerUpdate() {
+    ioPlan.execute(backgroundTicks++);
     execute();
+    checkJournal();
+  }
+
+  /**
+   * Stop journaling once the journal writer has failed, rather than leaving
+   * its tap installed to drop every message.
+   */
+  private void checkJournal() {
+    final BlackboardJournal j = journal;
+    if (j != null && j.isFailed()) {
+      LOGGER.error("Blackboard journal failed, journaling stopped: " + j);
+      stopJournal();
+      journal = null;
+    }
   }
 
   public synchronized void start() {
@@ -306,6 +700,8 @@ public final class Controller extends Device implements Runnable {
 
   public synchronized void stop() {
     isRunning = false;
+    watchdog.stop();
+    controlLoop.stop();
     shutdown();
   }
 }
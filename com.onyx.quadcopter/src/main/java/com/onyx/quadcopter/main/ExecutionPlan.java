@@ -0,0 +1,182 @@
+package com.onyx.quadcopter.main;
+
+import com.onyx.quadcopter.devices.Device;
+import com.onyx.quadcopter.devices.ExecutionMode;
+import com.onyx.quadcopter.devices.RateGroup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Predicate;
+
+/**
+ * <p>An ordered set of devices executed once per tick.</p>
+ * <p>Devices are ordered by {@link com.onyx.quadcopter.devices.Stage} so
+ * sensors run before estimators, estimators before the PID controller and
+ * the PID controller before the motors. Messages posted by an earlier stage
+ * are gathered by a later stage within the same tick.</p>
+ * <p>Each device only runs on the ticks selected by its {@link RateGroup},
+ * given the frequency at which this plan is executed. Event driven devices
+ * are skipped on those ticks unless {@link Device#isDue()}.</p>
+ * <p>Devices in {@link ExecutionMode#IO} mode are handed off to the I/O
+ * executor instead of running on the calling thread. A device is not
+ * handed off again until its previous execution has finished.</p>
+ * <p>A plan is immutable, the {@link Controller} builds a new plan whenever
+ * devices are added, removed or initialized, so executing a plan allocates
+ * nothing and does not filter devices per tick.</p>
+ *
+ * @author fred
+ *
+ */
+final class ExecutionPlan {
+
+  /**
+   * Execution order, sorted by stage and then by device id.
+   */
+  private static final Comparator<Device> ORDER =
+      Comparator.comparing((Device d) -> d.getStage()).thenComparing(d -> d.getId());
+
+  /**
+   * The devices of this plan in execution order.
+   */
+  private final Device[] devices;
+
+  /**
+   * Ticks between executions of each device.
+   */
+  private final int[] divisors;
+
+  /**
+   * Tick offset of each device.
+   */
+  private final int[] phases;
+
+  /**
+   * Frequency this plan is executed at in hertz.
+   */
+  private final long frequency;
+
+  /**
+   * Instrumentation receiving the execute time of each device.
+   */
+  private final LoopMetrics metrics;
+
+  /**
+   * Executor for devices in I/O mode.
+   */
+  private final Executor ioExecutor;
+
+  /**
+   * Timed execution task of each device handed off to the I/O executor.
+   */
+  private final Runnable[] tasks;
+
+  /**
+   * Set to 1 while an I/O device has been handed off and not yet completed.
+   */
+  private final AtomicIntegerArray pending;
+
+  /**
+   * Build a new execution plan.
+   *
+   * @param candidates the devices to choose from.
+   * @param filter the devices to include in this plan.
+   * @param frequency the frequency at which this plan is executed in hertz.
+   * @param metrics the instrumentation to record device execute times into.
+   * @param ioExecutor the executor for devices in I/O mode.
+   */
+  ExecutionPlan(final Collection<Device> candidates, final Predicate<Device> filter,
+      final long frequency, final LoopMetrics metrics, final Executor ioExecutor) {
+    final List<Device> ordered = new ArrayList<Device>(candidates.size());
+    for (final Device dev : candidates) {
+      if (filter.test(dev)) {
+        ordered.add(dev);
+      }
+    }
+    ordered.sort(ORDER);
+    this.frequency = frequency;
+    this.metrics = metrics;
+    this.ioExecutor = ioExecutor;
+    devices = ordered.toArray(new Device[ordered.size()]);
+    divisors = new int[devices.length];
+    phases = new int[devices.length];
+    tasks = new Runnable[devices.length];
+    pending = new AtomicIntegerArray(devices.length);
+    for (int i = 0; i < devices.length; i++) {
+      final RateGroup group = devices[i].getRateGroup();
+      divisors[i] = group.getDivisor(frequency);
+      phases[i] = group.getPhase(frequency);
+      final Device dev = devices[i];
+      final int index = i;
+      tasks[i] = () -> {
+        try {
+          final long start = System.nanoTime();
+          dev.execute();
+          metrics.recordDevice(dev.getId(), System.nanoTime() - start);
+        } finally {
+          pending.set(index, 0);
+        }
+      };
+    }
+  }
+
+  /**
+   * Execute each device due on this tick in stage order.
+   *
+   * @param tick the current tick number.
+   */
+  void execute(final long tick) {
+    for (int i = 0; i < devices.length; i++) {
+      final Device dev = devices[i];
+      if (tick % divisors[i] == phases[i] && dev.isDue()) {
+        if (dev.getExecutionMode() == ExecutionMode.IO) {
+          submit(i);
+        } else {
+          final long start = System.nanoTime();
+          dev.execute();
+          metrics.recordDevice(dev.getId(), System.nanoTime() - start);
+        }
+      }
+    }
+  }
+
+  /**
+   * Hand a device off to the I/O executor unless it is still pending.
+   *
+   * @param index the index of the device.
+   */
+  private void submit(final int index) {
+    if (pending.compareAndSet(index, 0, 1)) {
+      try {
+        ioExecutor.execute(tasks[index]);
+      } catch (RejectedExecutionException e1) {
+        pending.set(index, 0);
+      }
+    }
+  }
+
+  /**
+   * Get the frequency this plan is executed at.
+   *
+   * @return the frequency in hertz.
+   */
+  long getFrequency() {
+    return frequency;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < devices.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(devices[i]).append(" 1/").append(divisors[i]).append('@').append(phases[i]);
+    }
+    return sb.append(']').toString();
+  }
+}
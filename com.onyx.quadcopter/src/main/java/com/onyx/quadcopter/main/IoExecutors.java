@@ -0,0 +1,89 @@
+package com.onyx.quadcopter.main;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Factory for the executor running blocking, I/O bound devices.</p>
+ * <p>When the running JDK provides virtual threads a virtual thread per task
+ * executor is used, so blocking on serial, I2C or camera reads never holds a
+ * platform thread. On older JDKs a pool of daemon platform threads bounded
+ * by {@link ThreadBudget#IO} and separate from the {@link Main#COORDINATOR}
+ * is used instead.</p>
+ * <p>The executor is only for short I/O work. Long lived work, such as the
+ * comm server loop, the application start or a task waiting for the pilot,
+ * would hold a bounded pool thread for good, so it is given its own thread
+ * with {@link #startThread(String, Runnable)}.</p>
+ *
+ * @author fred
+ *
+ */
+public final class IoExecutors {
+
+  /**
+   * Logger.
+   */
+  public static final Logger LOGGER = LoggerFactory.getLogger(IoExecutors.class);
+
+  /**
+   * Prefix for the names of fallback I/O threads.
+   */
+  private static final String THREAD_PREFIX = "onyx-io-";
+
+  /**
+   * Prefix for the names of long lived threads.
+   */
+  private static final String LONG_LIVED_PREFIX = "onyx-";
+
+  /**
+   * Seconds an idle fallback I/O thread is kept alive.
+   */
+  private static final long KEEP_ALIVE = 60L;
+
+  /**
+   * Unused ctor.
+   */
+  private IoExecutors() {}
+
+  /**
+   * Create a new executor for blocking I/O devices.
+   *
+   * @return a virtual thread per task executor if available, otherwise a bounded thread pool.
+   */
+  public static ExecutorService newIoExecutor() {
+    try {
+      final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      final ExecutorService service = (ExecutorService) factory.invoke(null);
+      LOGGER.debug("Using virtual threads for I/O devices.");
+      return service;
+    } catch (ReflectiveOperationException | RuntimeException e1) {
+      LOGGER.debug("Virtual threads unavailable, using " + ThreadBudget.IO + " I/O threads.");
+      final ThreadPoolExecutor pool = new ThreadPoolExecutor(ThreadBudget.IO, ThreadBudget.IO,
+          KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          ThreadBudget.newThreadFactory(THREAD_PREFIX, true));
+      pool.allowCoreThreadTimeOut(true);
+      return pool;
+    }
+  }
+
+  /**
+   * Run long lived work on a dedicated daemon thread.
+   *
+   * @param name the name of the work, the thread is named onyx-name.
+   * @param work the work to run.
+   * @return the started thread.
+   */
+  public static Thread startThread(final String name, final Runnable work) {
+    final Thread t = new Thread(work, LONG_LIVED_PREFIX + name);
+    t.setDaemon(true);
+    t.start();
+    return t;
+  }
+}
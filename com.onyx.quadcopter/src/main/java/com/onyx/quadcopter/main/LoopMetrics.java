@@ -0,0 +1,171 @@
+package com.onyx.quadcopter.main;
+
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.quadcopter.utils.TimingHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Timing instrumentation for a periodic loop.</p>
+ * <p>Records the wall time of each tick, the start time jitter of each
+ * tick against its ideal deadline, the number of ticks which overran the
+ * loop period and the execution time of each device. All storage is
+ * allocated up front so recording never allocates.</p>
+ *
+ * @author fred
+ *
+ */
+public final class LoopMetrics {
+
+  /**
+   * Name of the loop.
+   */
+  private final String name;
+
+  /**
+   * Loop period in nanoseconds.
+   */
+  private final long periodNanos;
+
+  /**
+   * Wall time of each tick.
+   */
+  private final TimingHistogram tickTime = new TimingHistogram();
+
+  /**
+   * Start time deviation of each tick from its deadline.
+   */
+  private final TimingHistogram jitter = new TimingHistogram();
+
+  /**
+   * Execute time of each device indexed by device id ordinal.
+   */
+  private final TimingHistogram[] deviceTimes;
+
+  /**
+   * Number of ticks which took longer than the loop period.
+   */
+  private final AtomicLong overruns = new AtomicLong();
+
+  /**
+   * Create new loop metrics.
+   *
+   * @param name the name of the loop.
+   * @param periodNanos the loop period in nanoseconds.
+   */
+  public LoopMetrics(final String name, final long periodNanos) {
+    this.name = name;
+    this.periodNanos = periodNanos;
+    deviceTimes = new TimingHistogram[DeviceId.values().length];
+    for (int i = 0; i < deviceTimes.length; i++) {
+      deviceTimes[i] = new TimingHistogram();
+    }
+  }
+
+  /**
+   * Record a completed tick.
+   *
+   * @param lateness how far the tick started after its ideal start time in nanoseconds.
+   * @param elapsed the wall time of the tick in nanoseconds.
+   */
+  public void recordTick(final long lateness, final long elapsed) {
+    jitter.record(Math.abs(lateness));
+    tickTime.record(elapsed);
+    if (elapsed > periodNanos) {
+      overruns.incrementAndGet();
+    }
+  }
+
+  /**
+   * Record the execute time of a device.
+   *
+   * @param id the device id.
+   * @param nanos the execute time in nanoseconds.
+   */
+  public void recordDevice(final DeviceId id, final long nanos) {
+    deviceTimes[id.ordinal()].record(nanos);
+  }
+
+  /**
+   * Get the tick wall time histogram.
+   *
+   * @return the tick time histogram.
+   */
+  public TimingHistogram getTickTime() {
+    return tickTime;
+  }
+
+  /**
+   * Get the tick start jitter histogram.
+   *
+   * @return the jitter histogram.
+   */
+  public TimingHistogram getJitter() {
+    return jitter;
+  }
+
+  /**
+   * Get the execute time histogram of a device.
+   *
+   * @param id the device id.
+   * @return the device execute time histogram.
+   */
+  public TimingHistogram getDeviceTime(final DeviceId id) {
+    return deviceTimes[id.ordinal()];
+  }
+
+  /**
+   * Get the number of ticks which overran the loop period.
+   *
+   * @return the overrun count.
+   */
+  public long getOverruns() {
+    return overruns.get();
+  }
+
+  /**
+   * Clear all recorded timings.
+   */
+  public void reset() {
+    tickTime.reset();
+    jitter.reset();
+    overruns.set(0);
+    for (final TimingHistogram h : deviceTimes) {
+      h.reset();
+    }
+  }
+
+  /**
+   * Get a multi line summary of this loop.
+   *
+   * @return the summary.
+   */
+  public String summary() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(name).append(" overruns=").append(getOverruns()).append(System.lineSeparator());
+    sb.append("tick ").append(tickTime.summary()).append(System.lineSeparator());
+    sb.append("jitter ").append(jitter.summary());
+    for (final DeviceId id : DeviceId.values()) {
+      final TimingHistogram h = deviceTimes[id.ordinal()];
+      if (h.getCount() > 0) {
+        sb.append(System.lineSeparator()).append(id).append(' ').append(h.summary());
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Get a short status line suitable for the OLED display.
+   *
+   * @return the status line.
+   */
+  public String statusLine() {
+    return name + " p99:" + tickTime.getPercentile(99) / 1000 + "us jit:"
+        + jitter.getPercentile(99) / 1000 + "us ovr:" + getOverruns();
+  }
+
+  @Override
+  public String toString() {
+    return summary();
+  }
+}
@@ -7,6 +7,7 @@ import com.onyx.common.utils.ShutdownHook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -26,8 +27,17 @@ public class Main {
     }
   }
 
+  /**
+   * Background coordinator, sized by the {@link ThreadBudget}.
+   */
   public static final ScheduledExecutorService COORDINATOR =
-      Executors.newScheduledThreadPool(Constants.NUM_THREADS);
+      Executors.newScheduledThreadPool(ThreadBudget.BACKGROUND,
+          ThreadBudget.newThreadFactory("onyx-coordinator-", false));
+
+  /**
+   * Executor for blocking I/O devices, see {@link IoExecutors}.
+   */
+  public static final ExecutorService IO_EXECUTOR = IoExecutors.newIoExecutor();
 
   /**
    * Main method. Application Entry Point.
@@ -41,12 +51,18 @@ public class Main {
    */
   static void begin() {
     Thread.setDefaultUncaughtExceptionHandler(new OnyxExceptionHandler());
+    ThreadBudget.log();
     final Controller controller = Controller.getInstance();
+    controller.setIoExecutor(IO_EXECUTOR);
     final StateMonitor monitor = new StateMonitor(controller);
     Main.COORDINATOR.scheduleWithFixedDelay(monitor, Constants.MONITOR_DELAY,
         Constants.MONITOR_PERIOD, Constants.MONITOR_TIMEUNIT);
-    Main.COORDINATOR.scheduleAtFixedRate(controller, Constants.CONTROLLER_DELAY,
-        Constants.CONTROLLER_PERIOD, Constants.CONTROLLER_TIMEUNIT);
+    if (!controller.isLockstep()) {
+      Main.COORDINATOR.scheduleAtFixedRate(controller, Constants.CONTROLLER_DELAY,
+          Constants.CONTROLLER_PERIOD, Constants.CONTROLLER_TIMEUNIT);
+    }
+    controller.getControlLoop().start(Constants.CONTROLLER_DELAY, Constants.CONTROLLER_TIMEUNIT);
+    controller.getWatchdog().start();
     addHook();
   }
 
@@ -61,7 +77,6 @@ public class Main {
    * Start application.
    */
   public static void appStart(final Controller controller) {
-    final AppStart start = new AppStart(controller);
-    start.start();
+    IoExecutors.startThread("app-start", new AppStart(controller));
   }
 }
@@ -0,0 +1,131 @@
+package com.onyx.quadcopter.main;
+
+import com.onyx.common.utils.Constants;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Central thread budget of the quadcopter process.</p>
+ * <p>Every pool in the process is sized from here so the total number of
+ * runnable threads fits the cores of the board:</p>
+ * <ul>
+ * <li>Control, the {@link ControlLoop} and its {@link ControlLoopWatchdog}.</li>
+ * <li>Network, the Netty boss and worker event loops of the comm server.</li>
+ * <li>Background, the {@link Main#COORDINATOR}. Unless configured it gets
+ * the cores left over after control and network.</li>
+ * <li>I/O, blocking devices on {@link Main#IO_EXECUTOR}. Long lived work,
+ * the comm server, tasks and the application start, runs on threads of its
+ * own and the GPS sentence reader starts its own thread. These threads
+ * spend their time blocked so they are not counted against the cores.</li>
+ * </ul>
+ * <p>Nothing in the process should use the common ForkJoinPool, so
+ * parallel streams are not used.</p>
+ *
+ * @author fred
+ *
+ */
+public final class ThreadBudget {
+
+  /**
+   * Logger.
+   */
+  public static final Logger LOGGER = LoggerFactory.getLogger(ThreadBudget.class);
+
+  /**
+   * Number of cores available to the process.
+   */
+  public static final int CORES = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Threads of the control loop and its watchdog.
+   */
+  public static final int CONTROL = 2;
+
+  /**
+   * Netty boss event loop threads.
+   */
+  public static final int NETWORK_BOSS = Math.max(1, Constants.NUM_NIO_THREADS);
+
+  /**
+   * Netty worker event loop threads.
+   */
+  public static final int NETWORK_WORKERS = Math.max(1, Constants.NUM_NIO_WORKER_THREADS);
+
+  /**
+   * Background coordinator threads.
+   */
+  public static final int BACKGROUND = Constants.NUM_COORDINATOR_THREADS > 0
+      ? Constants.NUM_COORDINATOR_THREADS
+      : Math.max(1, CORES - 1 - NETWORK_WORKERS);
+
+  /**
+   * Maximum blocking I/O platform threads.
+   */
+  public static final int IO = Math.max(1, Constants.NUM_IO_THREADS);
+
+  /**
+   * Unused ctor.
+   */
+  private ThreadBudget() {}
+
+  /**
+   * Get the number of threads competing for cores, the control loop
+   * counts as one since the watchdog is almost always parked.
+   *
+   * @return the number of compute threads.
+   */
+  public static int computeThreads() {
+    return 1 + NETWORK_WORKERS + BACKGROUND;
+  }
+
+  /**
+   * Return true if the compute threads exceed the available cores.
+   *
+   * @return true if the budget oversubscribes the cores.
+   */
+  public static boolean isOversubscribed() {
+    return computeThreads() > CORES;
+  }
+
+  /**
+   * Describe the thread budget.
+   *
+   * @return a one line description.
+   */
+  public static String describe() {
+    return "Thread budget: cores=" + CORES + " control=" + CONTROL
+        + " network=" + NETWORK_BOSS + "+" + NETWORK_WORKERS
+        + " background=" + BACKGROUND + " io=" + IO;
+  }
+
+  /**
+   * Log the thread budget, warning if it oversubscribes the cores.
+   */
+  public static void log() {
+    LOGGER.info(describe());
+    if (isOversubscribed()) {
+      LOGGER.warn("Thread budget oversubscribes " + CORES + " cores with "
+          + computeThreads() + " compute threads.");
+    }
+  }
+
+  /**
+   * Create a thread factory for named threads.
+   *
+   * @param prefix the thread name prefix.
+   * @param daemon true to create daemon threads.
+   * @return the thread factory.
+   */
+  public static ThreadFactory newThreadFactory(final String prefix, final boolean daemon) {
+    final AtomicInteger count = new AtomicInteger();
+    return r -> {
+      final Thread t = new Thread(r, prefix + count.incrementAndGet());
+      t.setDaemon(daemon);
+      return t;
+    };
+  }
+}
@@ -0,0 +1,84 @@
+package com.onyx.quadcopter.replay;
+
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.AclPriority;
+import com.onyx.common.messaging.ActionId;
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.common.messaging.MessageType;
+import com.onyx.common.utils.Constants;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the messages recorded by a
+ * {@link com.onyx.quadcopter.devices.BlackboardJournal}.
+ *
+ * @author fred
+ *
+ */
+public final class JournalReader {
+
+  /**
+   * Utility class.
+   */
+  private JournalReader() {}
+
+  /**
+   * Read every message of a journal in the order it was recorded.
+   *
+   * @param file the journal database file.
+   * @return the recorded messages.
+   * @throws SQLException if the journal can not be read.
+   */
+  public static List<RecordedMessage> read(final File file) throws SQLException {
+    try {
+      Class.forName(Constants.DRIVER);
+    } catch (ClassNotFoundException e1) {
+      throw new SQLException("SQLite driver not found: " + Constants.DRIVER, e1);
+    }
+    final List<RecordedMessage> recording = new ArrayList<RecordedMessage>();
+    try (Connection c = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        Statement s = c.createStatement();
+        ResultSet rs = s.executeQuery(Constants.GET_ALL_MESSAGES_STATEMENT)) {
+      while (rs.next()) {
+        recording.add(new RecordedMessage(rs.getLong("TIMESTAMP"), toMessage(rs)));
+      }
+    }
+    return recording;
+  }
+
+  /**
+   * Decode the current row of a result set.
+   *
+   * @param rs the result set.
+   * @return the message.
+   * @throws SQLException if a column can not be read.
+   */
+  private static AclMessage toMessage(final ResultSet rs) throws SQLException {
+    final AclMessage m = new AclMessage(MessageType.values()[rs.getInt("MSG_TYPE")],
+        ActionId.values()[rs.getInt("ACTION_ID")]);
+    m.setReciever(DeviceId.values()[rs.getInt("TO_DEVICE_ID")]);
+    m.setSender(DeviceId.values()[rs.getInt("FROM_DEVICE_ID")]);
+    m.setContent(rs.getString("CONTENT"));
+    m.setValue(rs.getDouble("VALUE"));
+    m.setPriority(AclPriority.values()[rs.getInt("PRIORITY")]);
+    final byte[] vector = rs.getBytes("VECTOR");
+    if (vector != null) {
+      final ByteBuffer buf = ByteBuffer.wrap(vector);
+      if (vector.length == 3 * Double.BYTES) {
+        m.setVector(buf.getDouble(), buf.getDouble(), buf.getDouble());
+      } else if (vector.length == 4 * Double.BYTES) {
+        m.setVector(buf.getDouble(), buf.getDouble(), buf.getDouble(), buf.getDouble());
+      }
+    }
+    return m;
+  }
+}
@@ -0,0 +1,25 @@
+package com.onyx.quadcopter.replay;
+
+/**
+ * How fast a {@link ReplayEngine} replays recorded traffic.
+ *
+ * @author fred
+ *
+ */
+public enum Pacing {
+
+  /**
+   * Replay at the recorded rate.
+   */
+  REAL_TIME,
+
+  /**
+   * Replay faster than recorded by the speed factor of the engine.
+   */
+  ACCELERATED,
+
+  /**
+   * Replay as fast as the devices handle the messages.
+   */
+  MAX_SPEED;
+}
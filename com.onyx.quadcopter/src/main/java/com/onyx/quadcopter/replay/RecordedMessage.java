@@ -0,0 +1,56 @@
+package com.onyx.quadcopter.replay;
+
+import com.onyx.common.messaging.AclMessage;
+
+/**
+ * A recorded blackboard message and the time it was posted.
+ *
+ * @author fred
+ *
+ */
+public final class RecordedMessage {
+
+  /**
+   * The time the message was posted in nanoseconds.
+   */
+  private final long timestamp;
+
+  /**
+   * The message, never pooled.
+   */
+  private final AclMessage message;
+
+  /**
+   * Create a new recorded message.
+   *
+   * @param timestamp the time the message was posted in nanoseconds.
+   * @param message the message.
+   */
+  public RecordedMessage(final long timestamp, final AclMessage message) {
+    this.timestamp = timestamp;
+    this.message = message;
+  }
+
+  /**
+   * Get the time the message was posted.
+   *
+   * @return the timestamp in nanoseconds.
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Get the recorded message.
+   *
+   * @return the message.
+   */
+  public AclMessage getMessage() {
+    return message;
+  }
+
+  @Override
+  public String toString() {
+    return timestamp + " " + message;
+  }
+}
@@ -0,0 +1,278 @@
+package com.onyx.quadcopter.replay;
+
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.quadcopter.devices.Blackboard;
+import com.onyx.quadcopter.devices.Device;
+import com.onyx.quadcopter.devices.MessageTap;
+import com.onyx.quadcopter.main.ControlLoop;
+import com.onyx.quadcopter.main.Controller;
+import com.onyx.quadcopter.utils.SimulatedClock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Deterministic replay of recorded blackboard traffic.</p>
+ * <p>The engine feeds a chosen subset of the devices of a {@link Controller}
+ * running against a {@link SimulatedClock}, for example only the PID and the
+ * motors. Recorded messages addressed to a replayed device, or published to
+ * subscribers, are posted again at their recorded time; messages the replayed
+ * devices sent in the recording are instead compared with what they send
+ * now, see {@link ReplayReport}.</p>
+ * <p>The controller is paused and its control loop stopped while replaying,
+ * so nothing else advances the clock, and the replayed devices are executed
+ * on the calling thread in stage order after each recorded instant. A replay
+ * of the same recording therefore always produces the same result.
+ * Messages for devices which are not replayed are discarded.</p>
+ *
+ * @author fred
+ *
+ */
+public final class ReplayEngine {
+
+  /**
+   * Logger.
+   */
+  public static final Logger LOGGER = LoggerFactory.getLogger(ReplayEngine.class);
+
+  /**
+   * The controller replayed into.
+   */
+  private final Controller controller;
+
+  /**
+   * The simulated clock of the controller.
+   */
+  private final SimulatedClock clock;
+
+  /**
+   * The replayed devices in stage order.
+   */
+  private final List<Device> devices = new ArrayList<Device>();
+
+  /**
+   * Ids of the replayed devices.
+   */
+  private final EnumSet<DeviceId> targets = EnumSet.noneOf(DeviceId.class);
+
+  /**
+   * Longest wait for the control loop to stop in milliseconds.
+   */
+  private static final long LOOP_STOP_MILLIS = 1000;
+
+  /**
+   * The pacing.
+   */
+  private Pacing pacing = Pacing.MAX_SPEED;
+
+  /**
+   * Speed factor of {@link Pacing#ACCELERATED} replays.
+   */
+  private double speed = 1.0;
+
+  /**
+   * Largest difference of a value still matching the recording.
+   */
+  private double tolerance = 1e-6;
+
+  /**
+   * Scratch copy of a vector payload.
+   */
+  private final double[] sample = new double[AclMessage.VECTOR_SIZE];
+
+  /**
+   * Create a new replay engine.
+   *
+   * @param controller a controller running against a simulated clock.
+   * @param ids the devices to replay, each must be registered with the controller.
+   */
+  public ReplayEngine(final Controller controller, final DeviceId... ids) {
+    if (!controller.isLockstep()) {
+      throw new IllegalStateException("Replay requires a controller with a simulated clock.");
+    }
+    this.controller = controller;
+    clock = (SimulatedClock) controller.getClock();
+    for (final DeviceId id : ids) {
+      final Device d = controller.getDevice(id);
+      if (d == null) {
+        throw new IllegalArgumentException("Device not registered: " + id);
+      }
+      if (targets.add(id)) {
+        devices.add(d);
+      }
+    }
+    devices.sort(Comparator.comparing(Device::getStage));
+  }
+
+  /**
+   * Set the pacing of replays.
+   *
+   * @param pacing the pacing.
+   * @param speed the speed factor used by {@link Pacing#ACCELERATED}.
+   */
+  public void setPacing(final Pacing pacing, final double speed) {
+    if (pacing == null || speed <= 0) {
+      throw new IllegalArgumentException("Invalid pacing: " + pacing + " x" + speed);
+    }
+    this.pacing = pacing;
+    this.speed = speed;
+  }
+
+  /**
+   * Set the largest difference of a value or vector element still
+   * matching the recording.
+   *
+   * @param tolerance the tolerance.
+   */
+  public void setTolerance(final double tolerance) {
+    this.tolerance = tolerance;
+  }
+
+  /**
+   * Replay a recording.
+   *
+   * @param recording the recorded messages.
+   * @return the comparison of the replayed devices with the recording.
+   * @throws IllegalStateException if the control loop does not stop.
+   */
+  public ReplayReport replay(final List<RecordedMessage> recording) {
+    final ReplayReport report = new ReplayReport(tolerance);
+    final List<RecordedMessage> inputs = new ArrayList<RecordedMessage>();
+    for (final RecordedMessage r : recording) {
+      final AclMessage m = r.getMessage();
+      if (targets.contains(m.getSender())) {
+        report.expect(m);
+      } else if (targets.contains(m.getReciever()) || m.getReciever() == DeviceId.BLACKBOARD) {
+        inputs.add(r);
+      }
+    }
+    inputs.sort(Comparator.comparingLong(RecordedMessage::getTimestamp));
+    final ControlLoop loop = controller.getControlLoop();
+    final boolean looping = loop.isRunning();
+    if (looping && !loop.stop(LOOP_STOP_MILLIS)) {
+      throw new IllegalStateException("Control loop did not stop, replay refused.");
+    }
+    final Blackboard blackboard = controller.getBlackboard();
+    final MessageTap previous = blackboard.getTap();
+    blackboard.setTap(msg -> {
+      if (targets.contains(msg.getSender())) {
+        report.observe(msg);
+      }
+      if (previous != null) {
+        previous.onMessage(msg);
+      }
+    });
+    final boolean wasRunning = controller.isRunning();
+    controller.pause();
+    try {
+      discardUntargeted(blackboard);
+      run(blackboard, inputs);
+    } finally {
+      blackboard.setTap(previous);
+      if (wasRunning) {
+        controller.resume();
+      }
+      if (looping) {
+        loop.start(0, TimeUnit.NANOSECONDS);
+      }
+    }
+    LOGGER.info(report.toString());
+    return report;
+  }
+
+  /**
+   * Post the inputs at their recorded times and execute the replayed devices.
+   *
+   * @param blackboard the blackboard of the controller.
+   * @param inputs the inputs in timestamp order.
+   */
+  private void run(final Blackboard blackboard, final List<RecordedMessage> inputs) {
+    if (inputs.isEmpty()) {
+      return;
+    }
+    final long base = clock.nanoTime();
+    final long first = inputs.get(0).getTimestamp();
+    final long wallStart = System.nanoTime();
+    int i = 0;
+    while (i < inputs.size()) {
+      final long t = inputs.get(i).getTimestamp();
+      pace(t - first, wallStart);
+      clock.advanceTo(base + t - first);
+      while (i < inputs.size() && inputs.get(i).getTimestamp() == t) {
+        post(blackboard, inputs.get(i).getMessage());
+        i++;
+      }
+      for (final Device d : devices) {
+        d.execute();
+      }
+      discardUntargeted(blackboard);
+    }
+  }
+
+  /**
+   * Post a pooled copy of a recorded message. Published messages also
+   * update the latest value topic of their action.
+   *
+   * @param blackboard the blackboard of the controller.
+   * @param recorded the recorded message.
+   */
+  private void post(final Blackboard blackboard, final AclMessage recorded) {
+    final AclMessage m = blackboard.acquire(recorded.getMessageType(), recorded.getActionId())
+        .copyFrom(recorded);
+    if (recorded.getReciever() == DeviceId.BLACKBOARD) {
+      if (recorded.hasVector()) {
+        final int n = recorded.getVector(sample);
+        blackboard.getTopic(recorded.getActionId()).publish(sample, n, clock.nanoTime());
+        blackboard.publishSample(m);
+      } else {
+        blackboard.publish(m);
+      }
+    } else {
+      blackboard.addMessage(m);
+    }
+  }
+
+  /**
+   * Wait until the wall clock reaches the paced time of a recorded instant.
+   *
+   * @param offset the recorded time since the first input in nanoseconds.
+   * @param wallStart the wall clock time the replay started.
+   */
+  private void pace(final long offset, final long wallStart) {
+    if (pacing == Pacing.MAX_SPEED) {
+      return;
+    }
+    final double factor = pacing == Pacing.ACCELERATED ? speed : 1.0;
+    final long due = wallStart + (long) (offset / factor);
+    long wait = due - System.nanoTime();
+    while (wait > 0) {
+      LockSupport.parkNanos(wait);
+      wait = due - System.nanoTime();
+    }
+  }
+
+  /**
+   * Release the messages waiting for devices which are not replayed.
+   *
+   * @param blackboard the blackboard of the controller.
+   */
+  private void discardUntargeted(final Blackboard blackboard) {
+    for (final DeviceId id : DeviceId.values()) {
+      if (!targets.contains(id)) {
+        AclMessage m = blackboard.getMessage(id);
+        while (m != null) {
+          m.release();
+          m = blackboard.getMessage(id);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package com.onyx.quadcopter.replay;
+
+import com.onyx.common.messaging.AclMessage;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <p>Comparison of the messages replayed devices send with the messages
+ * they sent in the recording.</p>
+ * <p>Messages are compared in order per sender, receiver and action. A
+ * message matches if its content is equal and its value and vector differ
+ * by no more than the tolerance.</p>
+ *
+ * @author fred
+ *
+ */
+public final class ReplayReport {
+
+  /**
+   * Largest difference of a value or vector element still matching.
+   */
+  private final double tolerance;
+
+  /**
+   * Recorded messages not yet compared, by route.
+   */
+  private final Map<String, ArrayDeque<AclMessage>> expected =
+      new HashMap<String, ArrayDeque<AclMessage>>();
+
+  /**
+   * Number of messages matching the recording.
+   */
+  private long matched;
+
+  /**
+   * Number of messages differing from the recording.
+   */
+  private long mismatched;
+
+  /**
+   * Number of messages sent which have no recorded counterpart.
+   */
+  private long unexpected;
+
+  /**
+   * Largest difference of a value or vector element.
+   */
+  private double maxError;
+
+  /**
+   * Create a new report.
+   *
+   * @param tolerance the largest difference still matching.
+   */
+  public ReplayReport(final double tolerance) {
+    this.tolerance = tolerance;
+  }
+
+  /**
+   * Get the route of a message.
+   *
+   * @param msg the message.
+   * @return the route key.
+   */
+  private static String route(final AclMessage msg) {
+    return msg.getSender() + "->" + msg.getReciever() + " " + msg.getActionId();
+  }
+
+  /**
+   * Add a recorded message a replayed device is expected to send.
+   *
+   * @param recorded the recorded message.
+   */
+  synchronized void expect(final AclMessage recorded) {
+    expected.computeIfAbsent(route(recorded), k -> new ArrayDeque<AclMessage>()).add(recorded);
+  }
+
+  /**
+   * Compare a message sent by a replayed device with the recording.
+   *
+   * @param actual the message sent.
+   */
+  synchronized void observe(final AclMessage actual) {
+    final ArrayDeque<AclMessage> queue = expected.get(route(actual));
+    final AclMessage recorded = queue == null ? null : queue.poll();
+    if (recorded == null) {
+      unexpected++;
+      return;
+    }
+    double error = Math.abs(recorded.getValue() - actual.getValue());
+    boolean same = Objects.equals(recorded.getContent(), actual.getContent())
+        && recorded.getVectorLength() == actual.getVectorLength();
+    for (int i = 0; same && i < actual.getVectorLength(); i++) {
+      error = Math.max(error, Math.abs(recorded.getVector(i) - actual.getVector(i)));
+    }
+    if (!Double.isNaN(error)) {
+      maxError = Math.max(maxError, error);
+    }
+    if (same && error <= tolerance) {
+      matched++;
+    } else {
+      mismatched++;
+    }
+  }
+
+  /**
+   * Get the number of messages matching the recording.
+   *
+   * @return the number of matches.
+   */
+  public synchronized long getMatched() {
+    return matched;
+  }
+
+  /**
+   * Get the number of messages differing from the recording.
+   *
+   * @return the number of mismatches.
+   */
+  public synchronized long getMismatched() {
+    return mismatched;
+  }
+
+  /**
+   * Get the number of recorded messages which were not sent.
+   *
+   * @return the number of missing messages.
+   */
+  public synchronized long getMissing() {
+    long missing = 0;
+    for (final ArrayDeque<AclMessage> queue : expected.values()) {
+      missing += queue.size();
+    }
+    return missing;
+  }
+
+  /**
+   * Get the number of messages sent which have no recorded counterpart.
+   *
+   * @return the number of unexpected messages.
+   */
+  public synchronized long getUnexpected() {
+    return unexpected;
+  }
+
+  /**
+   * Get the largest difference of a value or vector element.
+   *
+   * @return the largest error.
+   */
+  public synchronized double getMaxError() {
+    return maxError;
+  }
+
+  /**
+   * Return true if the replayed devices sent exactly the recorded messages.
+   *
+   * @return true if the replay matches the recording.
+   */
+  public boolean isMatch() {
+    return getMismatched() == 0 && getUnexpected() == 0 && getMissing() == 0;
+  }
+
+  @Override
+  public String toString() {
+    return "Replay matched=" + getMatched() + " mismatched=" + getMismatched()
+        + " missing=" + getMissing() + " unexpected=" + getUnexpected()
+        + " maxError=" + getMaxError();
+  }
+}
@@ -8,7 +8,11 @@ import com.onyx.common.messaging.MessageType;
 import com.onyx.common.state.OnyxState;
 import com.onyx.common.utils.Constants;
 import com.onyx.common.utils.ExceptionUtils;
+import com.onyx.quadcopter.devices.MessageBatch;
 import com.onyx.quadcopter.main.StateMonitor;
+import com.onyx.quadcopter.utils.SystemClock;
+
+import java.util.concurrent.TimeUnit;
 
 public class CalibrationTask extends Task<AclMessage> {
 
@@ -17,6 +21,11 @@ public class CalibrationTask extends Task<AclMessage> {
    */
   private boolean pressed;
 
+  /**
+   * Speeds of the four motors, published together.
+   */
+  private MessageBatch motors;
+
   /**
    * Construct a new calibration task.
    */
@@ -33,7 +42,8 @@ public class CalibrationTask extends Task<AclMessage> {
     setAllSpeed(Constants.MOTOR_MAX_SPEED);
     while (!pressed) {
       try {
-        Thread.sleep(Constants.MOTOR_INIT_DELAY);
+        // Wait for the pilot in wall clock time.
+        SystemClock.INSTANCE.sleep(TimeUnit.MILLISECONDS.toNanos(Constants.MOTOR_INIT_DELAY));
       } catch (InterruptedException e1) {
         ExceptionUtils.logError(getClass(), e1);
       }
@@ -48,10 +58,14 @@ public class CalibrationTask extends Task<AclMessage> {
    * @param speed the speed at which to rotate the motors as a percentage.
    */
   private void setAllSpeed(double speed) {
-    getDev().sendMessageHigh(DeviceId.MOTOR1, "", speed, ActionId.CHANGE_MOTOR_SPEED);
-    getDev().sendMessageHigh(DeviceId.MOTOR2, "", speed, ActionId.CHANGE_MOTOR_SPEED);
-    getDev().sendMessageHigh(DeviceId.MOTOR3, "", speed, ActionId.CHANGE_MOTOR_SPEED);
-    getDev().sendMessageHigh(DeviceId.MOTOR4, "", speed, ActionId.CHANGE_MOTOR_SPEED);
+    if (motors == null) {
+      motors = getDev().newBatch(4);
+    }
+    motors.add(DeviceId.MOTOR1, "", speed, ActionId.CHANGE_MOTOR_SPEED, AclPriority.HIGH)
+        .add(DeviceId.MOTOR2, "", speed, ActionId.CHANGE_MOTOR_SPEED, AclPriority.HIGH)
+        .add(DeviceId.MOTOR3, "", speed, ActionId.CHANGE_MOTOR_SPEED, AclPriority.HIGH)
+        .add(DeviceId.MOTOR4, "", speed, ActionId.CHANGE_MOTOR_SPEED, AclPriority.HIGH)
+        .publish();
   }
 
   @Override
@@ -1,17 +1,18 @@
 package com.onyx.quadcopter.tasks;
 
-import com.onyx.common.messaging.DeviceId;
 import com.onyx.common.utils.Constants;
 import com.onyx.common.utils.ExceptionUtils;
 import com.onyx.quadcopter.devices.Device;
 import com.onyx.quadcopter.exceptions.OnyxException;
 import com.onyx.quadcopter.main.Controller;
 import com.onyx.quadcopter.utils.StartupState;
+import com.onyx.quadcopter.utils.SystemClock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
 
 /**
  * Test all devices calling selfTest() for each device in the controller.
@@ -54,12 +55,11 @@ public class PowerOnSelfTest {
     if (Constants.SIMULATION) {
       return StartupState.SUCCESSFUL;
     }
-    for (final Entry<DeviceId, Device> d : controller.getDevices()) {
-      final Device dev = d.getValue();
+    for (final Device dev : controller.getDevices()) {
       while (!dev.isInitialized()) {
         try {
-          // Wait for the device to be initialized.
-          Thread.sleep(100);
+          // Wait for the device to be initialized, in wall clock time.
+          SystemClock.INSTANCE.sleep(TimeUnit.MILLISECONDS.toNanos(100));
         } catch (InterruptedException e1) {
           ExceptionUtils.logError(getClass(), e1);
         }
@@ -67,7 +67,7 @@ public class PowerOnSelfTest {
       if (dev.selfTest()) {
         continue;
       } else {
-        LOGGER.debug("Power on self test failed. Device: " + d + " did not pass.");
+        LOGGER.debug("Power on self test failed. Device: " + dev + " did not pass.");
         return StartupState.UNSUCCESSFUL;
       }
     }
@@ -0,0 +1,28 @@
+package com.onyx.quadcopter.utils;
+
+/**
+ * <p>Source of time for the flight stack.</p>
+ * <p>All timing decisions read time through a clock so a run can use either
+ * the {@link SystemClock} or a {@link SimulatedClock} which is advanced in
+ * discrete steps, allowing reproducible runs faster than real time.</p>
+ *
+ * @author fred
+ *
+ */
+public interface Clock {
+
+  /**
+   * Get the current time of this clock.
+   *
+   * @return the current time in nanoseconds, only meaningful relative to other readings.
+   */
+  long nanoTime();
+
+  /**
+   * Block the calling thread until this clock has advanced by the given duration.
+   *
+   * @param nanos the duration to sleep in nanoseconds.
+   * @throws InterruptedException if the calling thread is interrupted while sleeping.
+   */
+  void sleep(long nanos) throws InterruptedException;
+}
@@ -0,0 +1,99 @@
+package com.onyx.quadcopter.utils;
+
+/**
+ * <p>Clock advanced explicitly in discrete steps.</p>
+ * <p>Time only moves when {@link #advance(long)} or {@link #advanceTo(long)}
+ * is called, normally once per tick by the control loop. Threads sleeping on
+ * this clock are woken once simulated time reaches their wake up time.
+ * Sleeping fails fast when nothing drives the clock yet, since the sleeper
+ * would never wake, and on the driving thread, which would block on itself.
+ * Code waiting for hardware or the pilot rather than for simulated time
+ * should wait on the {@link SystemClock}.</p>
+ *
+ * @author fred
+ *
+ */
+public final class SimulatedClock implements Clock {
+
+  /**
+   * Current simulated time in nanoseconds.
+   */
+  private volatile long now;
+
+  /**
+   * The thread which last advanced this clock.
+   */
+  private volatile Thread driver;
+
+  /**
+   * Create a simulated clock starting at time zero.
+   */
+  public SimulatedClock() {
+    this(0);
+  }
+
+  /**
+   * Create a simulated clock.
+   *
+   * @param start the initial time in nanoseconds.
+   */
+  public SimulatedClock(final long start) {
+    now = start;
+  }
+
+  @Override
+  public long nanoTime() {
+    return now;
+  }
+
+  /**
+   * Advance this clock.
+   *
+   * @param nanos the step in nanoseconds.
+   */
+  public void advance(final long nanos) {
+    advanceTo(now + nanos);
+  }
+
+  /**
+   * Advance this clock to the given time, the clock never moves backward.
+   * The calling thread becomes the driver of this clock.
+   *
+   * @param time the new time in nanoseconds.
+   */
+  public synchronized void advanceTo(final long time) {
+    driver = Thread.currentThread();
+    if (time > now) {
+      now = time;
+      notifyAll();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IllegalStateException if no thread drives this clock yet or the
+   *     calling thread drives it.
+   */
+  @Override
+  public void sleep(final long nanos) throws InterruptedException {
+    final Thread current = driver;
+    if (current == null) {
+      throw new IllegalStateException("No thread drives " + this + " yet.");
+    }
+    if (current == Thread.currentThread()) {
+      throw new IllegalStateException("The driver of " + this + " cannot sleep on it.");
+    }
+    synchronized (this) {
+      final long wake = now + nanos;
+      while (now < wake) {
+        wait();
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "SimulatedClock[" + now + "ns]";
+  }
+}
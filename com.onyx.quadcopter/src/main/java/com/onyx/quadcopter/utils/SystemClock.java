@@ -0,0 +1,49 @@
+package com.onyx.quadcopter.utils;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Real time clock backed by {@link System#nanoTime()}.
+ *
+ * @author fred
+ *
+ */
+public final class SystemClock implements Clock {
+
+  /**
+   * The system clock instance.
+   */
+  public static final SystemClock INSTANCE = new SystemClock();
+
+  /**
+   * Use {@link #INSTANCE}.
+   */
+  private SystemClock() {}
+
+  @Override
+  public long nanoTime() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Sleep by parking the calling thread, unlike {@link Thread#sleep(long, int)}
+   * sub millisecond durations are not rounded up to a whole millisecond.
+   */
+  @Override
+  public void sleep(final long nanos) throws InterruptedException {
+    final long deadline = System.nanoTime() + nanos;
+    long remaining = nanos;
+    while (remaining > 0) {
+      LockSupport.parkNanos(this, remaining);
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      remaining = deadline - System.nanoTime();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "SystemClock";
+  }
+}
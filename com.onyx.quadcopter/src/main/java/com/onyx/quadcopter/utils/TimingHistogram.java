@@ -0,0 +1,149 @@
+package com.onyx.quadcopter.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Fixed size histogram of durations in nanoseconds.</p>
+ * <p>Samples are counted in power of two buckets so recording a sample
+ * is a handful of atomic increments and never allocates. Percentiles
+ * are reported as the upper bound of the bucket they fall in.</p>
+ *
+ * @author fred
+ *
+ */
+public final class TimingHistogram {
+
+  /**
+   * Number of buckets, one per bit of a long.
+   */
+  private static final int BUCKETS = Long.SIZE;
+
+  /**
+   * Sample counts per bucket, bucket i holds samples below 2^i nanoseconds.
+   */
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+  /**
+   * Number of samples recorded.
+   */
+  private final AtomicLong count = new AtomicLong();
+
+  /**
+   * Sum of all samples.
+   */
+  private final AtomicLong total = new AtomicLong();
+
+  /**
+   * Largest sample recorded.
+   */
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Record a sample.
+   *
+   * @param nanos the duration in nanoseconds, negative durations are recorded as 0.
+   */
+  public void record(final long nanos) {
+    final long sample = Math.max(0, nanos);
+    buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(sample));
+    count.incrementAndGet();
+    total.addAndGet(sample);
+    long current = max.get();
+    while (sample > current && !max.compareAndSet(current, sample)) {
+      current = max.get();
+    }
+  }
+
+  /**
+   * Get the number of samples recorded.
+   *
+   * @return the sample count.
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Get the largest sample recorded.
+   *
+   * @return the largest sample in nanoseconds.
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Get the mean of all samples.
+   *
+   * @return the mean in nanoseconds.
+   */
+  public long getMean() {
+    final long n = count.get();
+    return n == 0 ? 0 : total.get() / n;
+  }
+
+  /**
+   * Get an upper bound for the given percentile.
+   *
+   * @param percentile the percentile between 0 and 100.
+   * @return the upper bound of the bucket holding the percentile in nanoseconds.
+   */
+  public long getPercentile(final double percentile) {
+    final long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    final long rank =
+        Math.max(1, (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100.0));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i, max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Clear all samples.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    total.set(0);
+    max.set(0);
+  }
+
+  /**
+   * Get a one line summary of this histogram in microseconds.
+   *
+   * @return the summary.
+   */
+  public String summary() {
+    return "n=" + getCount()
+        + " mean=" + toMicros(getMean())
+        + " p50=" + toMicros(getPercentile(50))
+        + " p99=" + toMicros(getPercentile(99))
+        + " max=" + toMicros(getMax()) + "us";
+  }
+
+  /**
+   * Convert nanoseconds to microseconds.
+   *
+   * @param nanos the duration in nanoseconds.
+   * @return the duration in microseconds.
+   */
+  private static long toMicros(final long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  @Override
+  public String toString() {
+    return summary();
+  }
+}
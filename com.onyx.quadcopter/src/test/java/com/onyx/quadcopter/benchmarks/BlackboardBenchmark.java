@@ -0,0 +1,205 @@
+package com.onyx.quadcopter.benchmarks;
+
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.AclPriority;
+import com.onyx.common.messaging.ActionId;
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.common.messaging.MessageType;
+import com.onyx.quadcopter.devices.Blackboard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Blackboard contention benchmark.</p>
+ * <p>{@link #postAndTake} has every thread post to and drain its own device
+ * bucket, as each device does during a tick. With no shared monitor the
+ * throughput should scale with the number of threads up to the core count.
+ * {@link #main(String[])} runs it with 1, 2, 4 ... threads up to the number
+ * of available processors.</p>
+ * <p>The {@code mpsc} group has several producers posting to one receiver,
+ * as Netty and pi4j threads do when posting to a device. {@link #pollEmpty}
+ * measures a device polling the blackboard with no mail, which every device
+ * does on most ticks.</p>
+ * <p>{@link #pooledSend} sends a message the way {@code Device.sendMessage}
+ * does, through the message pool. Run it with {@code -prof gc} to check
+ * the steady state allocation rate is close to zero.</p>
+ *
+ * @author fred
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlackboardBenchmark {
+
+  /**
+   * The shared blackboard.
+   */
+  private Blackboard blackboard;
+
+  /**
+   * Per thread device state.
+   */
+  @State(Scope.Thread)
+  public static class DeviceState {
+
+    /**
+     * The device this thread posts to and takes from.
+     */
+    private DeviceId id;
+
+    /**
+     * The message posted by this thread.
+     */
+    private AclMessage msg;
+
+    /**
+     * Pick a distinct device for each thread.
+     *
+     * @param params the thread parameters.
+     */
+    @Setup
+    public void setup(final ThreadParams params) {
+      id = DeviceId.values()[params.getThreadIndex() % DeviceId.values().length];
+      msg = newMessage(id);
+    }
+  }
+
+  /**
+   * Producer state for the mpsc group.
+   */
+  @State(Scope.Thread)
+  public static class ProducerState {
+
+    /**
+     * The message posted by this thread.
+     */
+    private AclMessage msg = newMessage(DeviceId.PID);
+  }
+
+  /**
+   * Create a new blackboard for each trial.
+   */
+  @Setup
+  public void setup() {
+    blackboard = new Blackboard();
+  }
+
+  /**
+   * Create a message for the given receiver.
+   *
+   * @param receiver the receiving device.
+   * @return the new message.
+   */
+  private static AclMessage newMessage(final DeviceId receiver) {
+    final AclMessage msg = new AclMessage(MessageType.SEND, ActionId.GYRO);
+    msg.setSender(DeviceId.GYRO_MAG_ACC);
+    msg.setReciever(receiver);
+    msg.setPriority(AclPriority.MEDIUM);
+    msg.setVector(0.0, 0.0, 0.0);
+    return msg;
+  }
+
+  /**
+   * Post a message to this thread's device and take it back.
+   *
+   * @param state the per thread device state.
+   * @return the message taken.
+   */
+  @Benchmark
+  public AclMessage postAndTake(final DeviceState state) {
+    blackboard.addMessage(state.msg);
+    return blackboard.getMessage(state.id);
+  }
+
+  /**
+   * Acquire a pooled message, post it and take it back, then release it.
+   *
+   * @param state the per thread device state.
+   * @return the first vector element of the message taken.
+   */
+  @Benchmark
+  public double pooledSend(final DeviceState state) {
+    final AclMessage msg = blackboard.acquire(MessageType.SEND, ActionId.GYRO);
+    msg.setSender(DeviceId.GYRO_MAG_ACC);
+    msg.setReciever(state.id);
+    msg.setPriority(AclPriority.MEDIUM);
+    msg.setVector(0.0, 0.0, 0.0);
+    blackboard.addMessage(msg);
+    final AclMessage taken = blackboard.getMessage(state.id);
+    final double x = taken.getVector(0);
+    taken.release();
+    return x;
+  }
+
+  /**
+   * Post a message to the shared receiver.
+   *
+   * @param state the producer state.
+   */
+  @Benchmark
+  @Group("mpsc")
+  @GroupThreads(3)
+  public void produce(final ProducerState state) {
+    blackboard.addMessage(state.msg);
+  }
+
+  /**
+   * Take a message from the shared receiver.
+   *
+   * @param bh the blackhole.
+   */
+  @Benchmark
+  @Group("mpsc")
+  @GroupThreads(1)
+  public void consume(final Blackhole bh) {
+    bh.consume(blackboard.getMessage(DeviceId.PID));
+  }
+
+  /**
+   * Poll a device which has no mail.
+   *
+   * @return null.
+   */
+  @Benchmark
+  public AclMessage pollEmpty() {
+    return blackboard.getMessage(DeviceId.CAMERA);
+  }
+
+  /**
+   * Run {@link #postAndTake} with a doubling number of threads up to the core count.
+   *
+   * @param args unused.
+   * @throws RunnerException if the benchmark fails.
+   */
+  public static void main(final String[] args) throws RunnerException {
+    final int cores = Runtime.getRuntime().availableProcessors();
+    for (int threads = 1; threads <= cores; threads *= 2) {
+      new Runner(new OptionsBuilder()
+          .include(BlackboardBenchmark.class.getSimpleName() + ".postAndTake")
+          .threads(threads)
+          .build()).run();
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.onyx.quadcopter.benchmarks;
+
+import com.onyx.quadcopter.control.Pid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>PID compute benchmark.</p>
+ * <p>{@link #sample} advances the sample timestamp by one sample period on
+ * every call, so each call computes a new output. {@link #cached} calls
+ * within the sample period and measures returning the last output, which
+ * is what the controller pays when it runs faster than the PID samples.
+ * {@link #clocked} times the sample with the system clock. None of them
+ * should ever block.</p>
+ *
+ * @author fred
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PidBenchmark {
+
+  /**
+   * The PID sample period in nanoseconds.
+   */
+  private static final long PERIOD = 100000;
+
+  /**
+   * The PID under test.
+   */
+  private Pid pid;
+
+  /**
+   * Timestamp of the next sample.
+   */
+  private long timestamp;
+
+  /**
+   * The input of the next sample.
+   */
+  private double input;
+
+  /**
+   * Create a new PID for each trial.
+   */
+  @Setup
+  public void setup() {
+    pid = new Pid(2, 1, 0.5);
+    pid.setMaxOutput(1.0);
+    pid.setMinOutput(0.0);
+    pid.setPoint(0.5);
+    pid.compute(0, 0);
+    timestamp = 0;
+    input = 0;
+  }
+
+  /**
+   * Compute a new sample.
+   *
+   * @return the output.
+   */
+  @Benchmark
+  public double sample() {
+    timestamp += PERIOD;
+    input = input > 1.0 ? 0 : input + 0.01;
+    return pid.compute(input, timestamp);
+  }
+
+  /**
+   * Compute before the next sample is due.
+   *
+   * @return the last output.
+   */
+  @Benchmark
+  public double cached() {
+    input = input > 1.0 ? 0 : input + 0.01;
+    return pid.compute(input, PERIOD / 2);
+  }
+
+  /**
+   * Compute with the sample timed by the system clock.
+   *
+   * @return the output.
+   */
+  @Benchmark
+  public double clocked() {
+    input = input > 1.0 ? 0 : input + 0.01;
+    return pid.compute(input);
+  }
+
+  /**
+   * Run every PID benchmark.
+   *
+   * @param args unused.
+   * @throws RunnerException if the benchmark fails.
+   */
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(PidBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+}
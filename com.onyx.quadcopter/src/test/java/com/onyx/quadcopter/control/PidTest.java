@@ -1,5 +1,6 @@
 package com.onyx.quadcopter.control;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -21,6 +22,11 @@ public class PidTest {
 	private static final int PID_INPUT_SIZE = 10000;
 
 	private static final double SETPOINT = 0.5;
+
+	/**
+	 * The PID sample period in nanoseconds.
+	 */
+	private static final long PERIOD = 100000;
 	
 	/**
 	 * The last 100 values from the pid to compute the moving average.
@@ -38,7 +44,7 @@ public class PidTest {
 		while(x < PID_INPUT_SIZE) {
 		  x++;
 		  double input = Math.random();
-		  double output = pid.compute(input);
+		  double output = pid.compute(input, x * PERIOD);
 		  lastHundred.add(output);
 		  assertTrue(output <= 1.0 && output >= 0.0);
 		  double ma = lastHundred.parallelStream().mapToDouble(n -> n).average().getAsDouble();
@@ -49,4 +55,57 @@ public class PidTest {
 		}
 	}
 
+	@Test(timeout=1000)
+	public void testEarlySampleReturnsLastOutput() {
+		Pid pid = new Pid(2,1,0.5);
+		pid.setMaxOutput(1.0);
+		pid.setMinOutput(0.0);
+		pid.setPoint(SETPOINT);
+		double output = pid.compute(0.2, PERIOD);
+		for (int i = 1; i < PID_INPUT_SIZE; i++) {
+			assertEquals(output, pid.compute(Math.random(), PERIOD + PERIOD / 2), 0.0);
+		}
+		assertEquals(output, pid.getLastOutput(), 0.0);
+	}
+
+	@Test
+	public void testLateSampleScalesIntegral() {
+		Pid onTime = new Pid(0,0.1,0);
+		Pid late = new Pid(0,0.1,0);
+		for (Pid pid : new Pid[] {onTime, late}) {
+			pid.setMaxOutput(1.0);
+			pid.setMinOutput(-1.0);
+			pid.setPoint(SETPOINT);
+		}
+		onTime.compute(0, 0);
+		late.compute(0, 0);
+		onTime.compute(0, PERIOD);
+		double expected = onTime.compute(0, 2 * PERIOD);
+		assertEquals(expected, late.compute(0, 2 * PERIOD), 1e-12);
+	}
+
+	@Test
+	public void testLongGapStartsOver() {
+		Pid pid = new Pid(1,0.1,0.5);
+		pid.setMaxOutput(1.0);
+		pid.setMinOutput(-1.0);
+		pid.setPoint(SETPOINT);
+		assertEquals(0.4 + 0.04, pid.compute(0.1, 0), 1e-12);
+		// The integral is kept but not grown over the gap, and the derivative does not kick.
+		assertEquals(0.2 + 0.04 + 0.02, pid.compute(0.3, (Pid.MAX_GAP_PERIODS + 1) * PERIOD), 1e-12);
+	}
+
+	@Test
+	public void testAutoOnStartsOver() {
+		Pid pid = new Pid(1,0.1,0.5);
+		pid.setMaxOutput(1.0);
+		pid.setMinOutput(-1.0);
+		pid.setPoint(SETPOINT);
+		pid.compute(0.1, 0);
+		pid.setAuto(false);
+		assertEquals(0, pid.compute(0.2, PERIOD), 0.0);
+		pid.setAuto(true);
+		assertEquals(0.2 + 0.04 + 0.02, pid.compute(0.3, 2 * PERIOD), 1e-12);
+	}
+
 }
@@ -0,0 +1,165 @@
+package com.onyx.quadcopter.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.ActionId;
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.common.messaging.MessageType;
+import com.onyx.quadcopter.utils.SystemClock;
+
+public class BlackboardJournalTest {
+
+	/**
+	 * Sizes of the batches executed.
+	 */
+	private final List<Integer> batches = new ArrayList<Integer>();
+
+	/**
+	 * Number of transactions committed.
+	 */
+	private int commits;
+
+	/**
+	 * True once the connection was closed.
+	 */
+	private boolean closed;
+
+	/**
+	 * Default value of a proxied method.
+	 */
+	private static Object defaultValue(Class<?> type) {
+		if (type == boolean.class) {
+			return false;
+		}
+		if (type == int.class) {
+			return 0;
+		}
+		if (type == long.class) {
+			return 0L;
+		}
+		return null;
+	}
+
+	/**
+	 * A connection recording the batches written through it.
+	 */
+	private Connection connection() {
+		final int[] pending = new int[1];
+		final PreparedStatement insert = (PreparedStatement) Proxy.newProxyInstance(
+				getClass().getClassLoader(), new Class<?>[] {PreparedStatement.class},
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "addBatch":
+						pending[0]++;
+						return null;
+					case "executeBatch":
+						synchronized (batches) {
+							batches.add(pending[0]);
+						}
+						int[] result = new int[pending[0]];
+						pending[0] = 0;
+						return result;
+					default:
+						return defaultValue(method.getReturnType());
+					}
+				});
+		return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "prepareStatement":
+						return insert;
+					case "commit":
+						commits++;
+						return null;
+					case "close":
+						closed = true;
+						return null;
+					default:
+						return defaultValue(method.getReturnType());
+					}
+				});
+	}
+
+	private static AclMessage message(int value) {
+		AclMessage msg = new AclMessage(MessageType.SEND, ActionId.CHANGE_PULSE_WIDTH);
+		msg.setSender(DeviceId.PID);
+		msg.setReciever(DeviceId.MOTOR1);
+		msg.setValue(value);
+		return msg;
+	}
+
+	@Test(timeout=5000)
+	public void testBatchesDropsAndFlushesOnStop() throws Exception {
+		BlackboardJournal journal = new BlackboardJournal(new File("unused.db"), 8, 4,
+				SystemClock.INSTANCE);
+		for (int i = 0; i < 10; i++) {
+			journal.onMessage(message(i));
+		}
+		assertEquals(2, journal.getDropped());
+		journal.start(connection());
+		journal.stop();
+		assertEquals(8, journal.getWritten());
+		assertEquals(0, journal.getFailed());
+		assertEquals(2, batches.size());
+		assertEquals(Integer.valueOf(4), batches.get(0));
+		assertEquals(Integer.valueOf(4), batches.get(1));
+		assertEquals(2, commits);
+		assertTrue(closed);
+	}
+
+	@Test(timeout=5000)
+	public void testWrittenEntriesAreRecycled() throws Exception {
+		BlackboardJournal journal = new BlackboardJournal(new File("unused.db"), 4, 4,
+				SystemClock.INSTANCE);
+		journal.start(connection());
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < 4; i++) {
+				journal.onMessage(message(i));
+			}
+			while (journal.getWritten() < 4 * (round + 1)) {
+				Thread.yield();
+			}
+		}
+		journal.stop();
+		assertEquals(0, journal.getDropped());
+		assertEquals(40, journal.getWritten());
+	}
+
+	@Test(timeout=5000)
+	public void testFailedWriterClosesTheConnection() throws Exception {
+		BlackboardJournal journal = new BlackboardJournal(new File("unused.db"), 4, 4,
+				SystemClock.INSTANCE);
+		Connection broken = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "prepareStatement":
+						throw new SQLException("disk I/O error");
+					case "close":
+						closed = true;
+						return null;
+					default:
+						return defaultValue(method.getReturnType());
+					}
+				});
+		journal.start(broken);
+		while (!journal.isFailed()) {
+			Thread.yield();
+		}
+		assertFalse(journal.isRunning());
+		journal.stop();
+		assertTrue(closed);
+	}
+}
@@ -0,0 +1,50 @@
+package com.onyx.quadcopter.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.ActionId;
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.common.messaging.MessageType;
+
+public class BlackboardTest {
+
+	@Test
+	public void testPublishSharesOneMessage() {
+		Blackboard blackboard = new Blackboard();
+		int free = blackboard.getPool().available();
+		blackboard.subscribe(ActionId.ORIENT, DeviceId.OLED_DEVICE);
+		blackboard.subscribe(ActionId.ORIENT, DeviceId.COMM_SERVER);
+		AclMessage msg = blackboard.acquire(MessageType.SEND, ActionId.ORIENT);
+		msg.setSender(DeviceId.GYRO_MAG_ACC);
+		msg.setVector(1, 2, 3);
+		assertEquals(2, blackboard.publish(msg));
+		AclMessage oled = blackboard.getMessage(DeviceId.OLED_DEVICE);
+		AclMessage server = blackboard.getMessage(DeviceId.COMM_SERVER);
+		assertSame(msg, oled);
+		assertSame(msg, server);
+		assertNull(blackboard.getMessage(DeviceId.PID));
+		oled.release();
+		server.release();
+		assertEquals(free, blackboard.getPool().available());
+	}
+
+	@Test
+	public void testPublishWithoutSubscribers() {
+		Blackboard blackboard = new Blackboard();
+		int free = blackboard.getPool().available();
+		blackboard.subscribe(ActionId.GYRO, DeviceId.PID);
+		blackboard.unsubscribe(ActionId.GYRO, DeviceId.PID);
+		assertFalse(blackboard.hasSubscribers(ActionId.GYRO));
+		AclMessage msg = blackboard.acquire(MessageType.SEND, ActionId.GYRO);
+		msg.setSender(DeviceId.GYRO_MAG_ACC);
+		msg.setVector(1, 2, 3);
+		assertEquals(0, blackboard.publish(msg));
+		assertEquals(free, blackboard.getPool().available());
+	}
+}
@@ -0,0 +1,128 @@
+package com.onyx.quadcopter.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.AclPriority;
+import com.onyx.common.messaging.ActionId;
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.common.messaging.MessageType;
+
+public class MailboxTest {
+
+	private static AclMessage message(ActionId action, AclPriority priority) {
+		AclMessage msg = new AclMessage(MessageType.SEND, action);
+		msg.setSender(DeviceId.CONTROLLER);
+		msg.setPriority(priority);
+		return msg;
+	}
+
+	@Test
+	public void testPriorityThenArrivalOrder() {
+		Mailbox mailbox = new Mailbox(4, OverflowPolicy.REJECT);
+		AclMessage low = message(ActionId.DISPLAY, AclPriority.LOW);
+		AclMessage first = message(ActionId.SEND_DATA, AclPriority.HIGH);
+		AclMessage second = message(ActionId.GET_TEMP, AclPriority.HIGH);
+		mailbox.offer(low);
+		mailbox.offer(first);
+		mailbox.offer(second);
+		assertSame(first, mailbox.poll());
+		assertSame(second, mailbox.poll());
+		assertSame(low, mailbox.poll());
+		assertNull(mailbox.poll());
+	}
+
+	@Test
+	public void testDrainTimeIsPerReceiver() {
+		Mailbox first = new Mailbox(4, OverflowPolicy.REJECT);
+		Mailbox second = new Mailbox(4, OverflowPolicy.REJECT);
+		AclMessage shared = message(ActionId.ORIENT, AclPriority.MEDIUM);
+		first.offer(shared, 100);
+		second.offer(shared, 200);
+		assertSame(shared, second.poll());
+		assertSame(shared, first.poll());
+		assertEquals(100, first.getDrainedNanos());
+		assertEquals(200, second.getDrainedNanos());
+	}
+
+	@Test
+	public void testFifoWithinPriority() {
+		Mailbox mailbox = new Mailbox(4, OverflowPolicy.REJECT);
+		for (int round = 0; round < 3; round++) {
+			AclMessage[] sent = new AclMessage[4];
+			for (int i = 0; i < sent.length; i++) {
+				sent[i] = message(ActionId.CHANGE_PULSE_WIDTH, AclPriority.MEDIUM);
+				sent[i].setValue(i);
+				assertTrue(mailbox.offer(sent[i]));
+			}
+			assertFalse(mailbox.offer(message(ActionId.CHANGE_PULSE_WIDTH, AclPriority.MEDIUM)));
+			for (int i = 0; i < sent.length; i++) {
+				assertSame(sent[i], mailbox.poll());
+			}
+			assertTrue(mailbox.isEmpty());
+		}
+	}
+
+	@Test
+	public void testUncommittedBatchIsHeldBack() {
+		Mailbox mailbox = new Mailbox(4, OverflowPolicy.REJECT);
+		AtomicLong gate = new AtomicLong();
+		AclMessage batched = message(ActionId.CHANGE_PULSE_WIDTH, AclPriority.HIGH);
+		batched.setCommitGate(gate, 1);
+		AclMessage low = message(ActionId.DISPLAY, AclPriority.LOW);
+		mailbox.offer(batched);
+		mailbox.offer(low);
+		assertSame(low, mailbox.poll());
+		assertNull(mailbox.poll());
+		assertFalse(mailbox.isEmpty());
+		gate.set(1);
+		assertSame(batched, mailbox.poll());
+		assertTrue(mailbox.isEmpty());
+	}
+
+	@Test
+	public void testDropLowestPriority() {
+		Mailbox mailbox = new Mailbox(2, OverflowPolicy.DROP_LOWEST_PRIORITY);
+		mailbox.offer(message(ActionId.DISPLAY, AclPriority.LOW));
+		AclMessage medium = message(ActionId.SEND_DATA, AclPriority.MEDIUM);
+		mailbox.offer(medium);
+		AclMessage high = message(ActionId.GET_TEMP, AclPriority.HIGH);
+		assertTrue(mailbox.offer(high));
+		assertFalse(mailbox.offer(message(ActionId.DISPLAY, AclPriority.MIN)));
+		assertEquals(1, mailbox.getEvicted());
+		assertEquals(1, mailbox.getRejected());
+		assertSame(high, mailbox.poll());
+		assertSame(medium, mailbox.poll());
+	}
+
+	@Test
+	public void testDropOldestKeepsMax() {
+		Mailbox mailbox = new Mailbox(2, OverflowPolicy.DROP_OLDEST);
+		AclMessage critical = message(ActionId.SEND_DATA, AclPriority.MAX);
+		mailbox.offer(critical);
+		mailbox.offer(message(ActionId.DISPLAY, AclPriority.LOW));
+		AclMessage newest = message(ActionId.GET_TEMP, AclPriority.LOW);
+		assertTrue(mailbox.offer(newest));
+		assertSame(critical, mailbox.poll());
+		assertSame(newest, mailbox.poll());
+	}
+
+	@Test
+	public void testConflate() {
+		Mailbox mailbox = new Mailbox(4, OverflowPolicy.CONFLATE);
+		mailbox.offer(message(ActionId.DISPLAY, AclPriority.LOW));
+		AclMessage latest = message(ActionId.DISPLAY, AclPriority.LOW);
+		mailbox.offer(latest);
+		assertEquals(1, mailbox.size());
+		assertEquals(1, mailbox.getConflated());
+		assertSame(latest, mailbox.poll());
+	}
+}
@@ -0,0 +1,38 @@
+package com.onyx.quadcopter.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.ActionId;
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.common.messaging.MessageType;
+
+public class MessageTracerTest {
+
+	@Test
+	public void testRecordPerRoute() {
+		MessageTracer tracer = new MessageTracer();
+		AclMessage msg = new AclMessage(MessageType.SEND, ActionId.CHANGE_PULSE_WIDTH);
+		msg.setSender(DeviceId.PID);
+		msg.setReciever(DeviceId.MOTOR1);
+		tracer.record(msg, 0, 100);
+		assertNull(tracer.getQueueLatency(DeviceId.PID, DeviceId.MOTOR1,
+				ActionId.CHANGE_PULSE_WIDTH));
+		msg.setEnqueuedNanos(1000);
+		tracer.record(msg, 4000, 5000);
+		assertEquals(3000, tracer.getQueueLatency(DeviceId.PID, DeviceId.MOTOR1,
+				ActionId.CHANGE_PULSE_WIDTH).getMax());
+		assertEquals(1000, tracer.getHandleLatency(DeviceId.PID, DeviceId.MOTOR1,
+				ActionId.CHANGE_PULSE_WIDTH).getMax());
+		assertNull(tracer.getQueueLatency(DeviceId.PID, DeviceId.MOTOR2,
+				ActionId.CHANGE_PULSE_WIDTH));
+		assertTrue(tracer.summary().contains("PID->MOTOR1 CHANGE_PULSE_WIDTH"));
+		tracer.reset();
+		assertEquals(0, tracer.getQueueLatency(DeviceId.PID, DeviceId.MOTOR1,
+				ActionId.CHANGE_PULSE_WIDTH).getCount());
+	}
+}
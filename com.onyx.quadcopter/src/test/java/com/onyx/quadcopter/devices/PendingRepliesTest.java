@@ -0,0 +1,65 @@
+package com.onyx.quadcopter.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.ActionId;
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.common.messaging.MessageType;
+
+public class PendingRepliesTest {
+
+	@Test
+	public void testReplyCompletesMatchingRequest() throws Exception {
+		PendingReplies pending = new PendingReplies();
+		CompletableFuture<AclMessage> first = pending.register(1);
+		CompletableFuture<AclMessage> second = pending.register(2);
+		AclMessage reply = new AclMessage(MessageType.REPLY, ActionId.SEND_DATA);
+		reply.setSender(DeviceId.CONTROLLER);
+		reply.setContent("timing");
+		reply.setCorrelationId(2);
+		assertTrue(pending.complete(reply));
+		assertFalse(first.isDone());
+		assertEquals("timing", second.get().getContent());
+		assertFalse(pending.complete(reply));
+		assertEquals(1, pending.size());
+	}
+
+	@Test
+	public void testUncorrelatedMessagesPassThrough() {
+		PendingReplies pending = new PendingReplies();
+		pending.register(1);
+		AclMessage send = new AclMessage(MessageType.SEND, ActionId.SEND_DATA);
+		send.setCorrelationId(1);
+		assertFalse(pending.complete(send));
+		assertFalse(pending.complete(new AclMessage(MessageType.REPLY, ActionId.SEND_DATA)));
+	}
+
+	@Test
+	public void testFail() {
+		PendingReplies pending = new PendingReplies();
+		CompletableFuture<AclMessage> future = pending.register(7);
+		pending.fail(7, new TimeoutException());
+		assertTrue(future.isCompletedExceptionally());
+		assertEquals(0, pending.size());
+	}
+
+	@Test
+	public void testFailAll() {
+		PendingReplies pending = new PendingReplies();
+		CompletableFuture<AclMessage> first = pending.register(1);
+		CompletableFuture<AclMessage> second = pending.register(2);
+		pending.failAll(new CancellationException());
+		assertTrue(first.isCancelled());
+		assertTrue(second.isCancelled());
+		assertEquals(0, pending.size());
+	}
+}
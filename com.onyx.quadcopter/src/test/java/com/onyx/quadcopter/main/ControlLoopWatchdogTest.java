@@ -0,0 +1,76 @@
+package com.onyx.quadcopter.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Test;
+
+public class ControlLoopWatchdogTest {
+
+	/**
+	 * The control loop period in nanoseconds.
+	 */
+	private static final long PERIOD = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 * Consecutive missed deadlines before the fail safe is run.
+	 */
+	private static final int MISSED = 5;
+
+	/**
+	 * True while the control loop tick blocks.
+	 */
+	private volatile boolean blocked;
+
+	private static void await(final BooleanSupplier condition) {
+		while (!condition.getAsBoolean()) {
+			LockSupport.parkNanos(PERIOD / 4);
+		}
+	}
+
+	@Test(timeout=10000)
+	public void testFailSafeOnceAndRearm() {
+		AtomicInteger failSafes = new AtomicInteger();
+		ControlLoop loop = new ControlLoop(() -> {
+			while (blocked) {
+				LockSupport.parkNanos(PERIOD / 10);
+			}
+		}, PERIOD, 0);
+		ControlLoopWatchdog watchdog = new ControlLoopWatchdog(loop, failSafes::incrementAndGet,
+				MISSED);
+		loop.start(0, TimeUnit.NANOSECONDS);
+		watchdog.start();
+		try {
+			await(() -> loop.getTickCount() >= 3);
+			assertEquals(0, watchdog.getInterventionCount());
+
+			blocked = true;
+			await(() -> watchdog.getInterventionCount() == 1);
+			long stalledAt = loop.getTickCount();
+			LockSupport.parkNanos(20 * PERIOD);
+			assertEquals(1, failSafes.get());
+			assertEquals(1, watchdog.getInterventionCount());
+			ControlLoopWatchdog.Intervention intervention = watchdog.getInterventions()[0];
+			assertEquals(stalledAt, intervention.getTick());
+			assertTrue(intervention.getStall() >= MISSED * PERIOD);
+
+			blocked = false;
+			await(() -> loop.getTickCount() > stalledAt + 3);
+			assertEquals(1, failSafes.get());
+
+			blocked = true;
+			await(() -> watchdog.getInterventionCount() == 2);
+			assertEquals(2, failSafes.get());
+			assertEquals(2, watchdog.getInterventions().length);
+		} finally {
+			blocked = false;
+			watchdog.stop();
+			loop.stop();
+		}
+	}
+}
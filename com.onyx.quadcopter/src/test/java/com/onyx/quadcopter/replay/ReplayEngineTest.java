@@ -0,0 +1,251 @@
+package com.onyx.quadcopter.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.onyx.common.concurrent.ConflatingTopic;
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.ActionId;
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.common.messaging.MessageType;
+import com.onyx.quadcopter.control.PidController;
+import com.onyx.quadcopter.devices.Blackboard;
+import com.onyx.quadcopter.devices.BlackboardJournal;
+import com.onyx.quadcopter.devices.Device;
+import com.onyx.quadcopter.main.Controller;
+import com.onyx.quadcopter.utils.Clock;
+import com.onyx.quadcopter.utils.SimulatedClock;
+
+public class ReplayEngineTest {
+
+	private static final int TICKS = 200;
+
+	private static final DeviceId[] DEVICES = {DeviceId.GYRO_MAG_ACC, DeviceId.PID, DeviceId.CAMERA};
+
+	private Controller controller;
+
+	private Clock previousClock;
+
+	private SimulatedClock clock;
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		controller = Controller.getInstance();
+		previousClock = controller.getClock();
+		clock = new SimulatedClock();
+		controller.setClock(clock);
+		file = File.createTempFile("onyx", ".db");
+		file.deleteOnExit();
+	}
+
+	@After
+	public void tearDown() {
+		controller.getControlLoop().stop();
+		controller.getBlackboard().setTap(null);
+		for (DeviceId id : DEVICES) {
+			controller.removeDevice(id);
+		}
+		discard(controller.getBlackboard(), EnumSet.noneOf(DeviceId.class));
+		controller.setClock(previousClock);
+	}
+
+	@Test
+	public void testReplayMatchesJournal() throws Exception {
+		List<RecordedMessage> recording = record();
+		boolean gyro = false;
+		for (RecordedMessage r : recording) {
+			gyro |= r.getMessage().getActionId() == ActionId.GYRO;
+		}
+		assertTrue(gyro);
+		ReplayReport report = replay(recording);
+		assertTrue(report.toString(), report.isMatch());
+		assertTrue(report.getMatched() > TICKS);
+	}
+
+	@Test
+	public void testReplayWithRunningLoopIsDeterministic() throws Exception {
+		List<RecordedMessage> recording = record();
+		controller.getControlLoop().start(0, TimeUnit.NANOSECONDS);
+		ReplayReport first = replay(recording);
+		assertTrue(controller.getControlLoop().isRunning());
+		ReplayReport second = replay(recording);
+		assertTrue(controller.getControlLoop().isRunning());
+		assertTrue(first.toString(), first.isMatch());
+		assertEquals(first.toString(), second.toString());
+		assertEquals(first.getMatched(), second.getMatched());
+		assertEquals(first.getMaxError(), second.getMaxError(), 0.0);
+	}
+
+	@Test
+	public void testReplayWithoutGyroDiffers() throws Exception {
+		List<RecordedMessage> recording = new ArrayList<RecordedMessage>();
+		for (RecordedMessage r : record()) {
+			if (r.getMessage().getActionId() != ActionId.GYRO) {
+				recording.add(r);
+			}
+		}
+		ReplayReport report = replay(recording);
+		assertFalse(report.isMatch());
+		assertTrue(report.toString(), report.getMissing() + report.getMismatched() >= TICKS);
+	}
+
+	/**
+	 * Fly the PID and the gyro echo from a fake IMU, journaling the blackboard.
+	 */
+	private List<RecordedMessage> record() throws Exception {
+		Blackboard blackboard = controller.getBlackboard();
+		BlackboardJournal journal = new BlackboardJournal(file, 4096, 64, clock);
+		journal.start();
+		blackboard.setTap(journal);
+		List<Device> devices = new ArrayList<Device>();
+		devices.add(new FakeImu());
+		devices.add(new PidController());
+		devices.add(new GyroEcho());
+		for (Device d : devices) {
+			controller.addDevice(d);
+			d.initialize();
+		}
+		for (int i = 0; i < TICKS; i++) {
+			clock.advance(TimeUnit.MILLISECONDS.toNanos(1));
+			if (i == 0) {
+				send(blackboard, ActionId.START_MOTORS, "true");
+				AclMessage control = blackboard.acquire(MessageType.SEND, ActionId.CONTROL);
+				control.setSender(DeviceId.COMM_SERVER);
+				control.setReciever(DeviceId.PID);
+				control.setVector(0, 0, 0, 1500);
+				blackboard.addMessage(control);
+			}
+			for (Device d : devices) {
+				d.execute();
+			}
+			discard(blackboard, EnumSet.of(DeviceId.GYRO_MAG_ACC, DeviceId.PID, DeviceId.CAMERA));
+		}
+		blackboard.setTap(null);
+		journal.stop();
+		assertEquals(0, journal.getDropped());
+		assertEquals(0, journal.getFailed());
+		return JournalReader.read(file);
+	}
+
+	/**
+	 * Replay the PID and the gyro echo on fresh instances.
+	 */
+	private ReplayReport replay(final List<RecordedMessage> recording) {
+		for (Device d : new Device[] {new PidController(), new GyroEcho()}) {
+			controller.addDevice(d);
+			d.initialize();
+		}
+		return new ReplayEngine(controller, DeviceId.PID, DeviceId.CAMERA).replay(recording);
+	}
+
+	private static void send(final Blackboard blackboard, final ActionId action,
+			final String content) {
+		AclMessage m = blackboard.acquire(MessageType.SEND, action);
+		m.setSender(DeviceId.COMM_SERVER);
+		m.setReciever(DeviceId.PID);
+		m.setContent(content);
+		blackboard.addMessage(m);
+	}
+
+	private static void discard(final Blackboard blackboard, final EnumSet<DeviceId> kept) {
+		for (DeviceId id : DeviceId.values()) {
+			if (!kept.contains(id)) {
+				AclMessage m;
+				while ((m = blackboard.getMessage(id)) != null) {
+					m.release();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Publishes a changing gyro sample every update, which no device subscribes to.
+	 */
+	private static final class FakeImu extends Device {
+
+		private int count;
+
+		FakeImu() {
+			super(DeviceId.GYRO_MAG_ACC);
+		}
+
+		@Override
+		protected void update() {
+			super.update();
+			count++;
+			publish(ActionId.GYRO, count * 0.5, -count * 0.25, count);
+		}
+
+		@Override
+		public void update(final AclMessage msg) {}
+
+		@Override
+		protected void init() {}
+
+		@Override
+		public void shutdown() {}
+
+		@Override
+		protected void alternate() {}
+
+		@Override
+		public boolean selfTest() {
+			return true;
+		}
+	}
+
+	/**
+	 * Reads the gyro topic and sends each new sample on to a motor, with the
+	 * time since the previous sample so the clock is checked too.
+	 */
+	private static final class GyroEcho extends Device {
+
+		private final ConflatingTopic.Sample gyro = new ConflatingTopic.Sample(AclMessage.VECTOR_SIZE);
+
+		private long last;
+
+		GyroEcho() {
+			super(DeviceId.CAMERA);
+		}
+
+		@Override
+		protected void update() {
+			super.update();
+			if (getController().getBlackboard().getTopic(ActionId.GYRO).readIfNewer(gyro)) {
+				long elapsed = last == 0 ? 0 : gyro.getTimestamp() - last;
+				last = gyro.getTimestamp();
+				sendVector(DeviceId.MOTOR1, ActionId.CHANGE_PULSE_WIDTH, gyro.get(0), elapsed, 0);
+			}
+		}
+
+		@Override
+		public void update(final AclMessage msg) {}
+
+		@Override
+		protected void init() {}
+
+		@Override
+		public void shutdown() {}
+
+		@Override
+		protected void alternate() {}
+
+		@Override
+		public boolean selfTest() {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.onyx.quadcopter.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.onyx.common.messaging.AclMessage;
+import com.onyx.common.messaging.ActionId;
+import com.onyx.common.messaging.DeviceId;
+import com.onyx.common.messaging.MessageType;
+
+public class ReplayReportTest {
+
+	private static AclMessage pulse(DeviceId motor, double value) {
+		AclMessage msg = new AclMessage(MessageType.SEND, ActionId.CHANGE_PULSE_WIDTH);
+		msg.setSender(DeviceId.PID);
+		msg.setReciever(motor);
+		msg.setValue(value);
+		return msg;
+	}
+
+	@Test
+	public void testMatchesInOrderPerRoute() {
+		ReplayReport report = new ReplayReport(0.01);
+		report.expect(pulse(DeviceId.MOTOR1, 1000));
+		report.expect(pulse(DeviceId.MOTOR1, 1100));
+		report.expect(pulse(DeviceId.MOTOR2, 1200));
+		report.observe(pulse(DeviceId.MOTOR2, 1200));
+		report.observe(pulse(DeviceId.MOTOR1, 1000.005));
+		report.observe(pulse(DeviceId.MOTOR1, 1100));
+		assertEquals(3, report.getMatched());
+		assertEquals(0.005, report.getMaxError(), 1e-9);
+		assertTrue(report.isMatch());
+	}
+
+	@Test
+	public void testDifferences() {
+		ReplayReport report = new ReplayReport(0.01);
+		report.expect(pulse(DeviceId.MOTOR1, 1000));
+		report.expect(pulse(DeviceId.MOTOR3, 1000));
+		report.observe(pulse(DeviceId.MOTOR1, 1050));
+		report.observe(pulse(DeviceId.MOTOR4, 1000));
+		assertEquals(1, report.getMismatched());
+		assertEquals(1, report.getUnexpected());
+		assertEquals(1, report.getMissing());
+		assertEquals(50, report.getMaxError(), 1e-9);
+		assertFalse(report.isMatch());
+	}
+}
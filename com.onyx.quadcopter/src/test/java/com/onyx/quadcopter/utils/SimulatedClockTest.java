@@ -0,0 +1,77 @@
+package com.onyx.quadcopter.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.onyx.quadcopter.control.Pid;
+
+public class SimulatedClockTest {
+
+	@Test
+	public void testAdvance() {
+		SimulatedClock clock = new SimulatedClock();
+		clock.advance(500);
+		clock.advanceTo(200);
+		assertEquals(500, clock.nanoTime());
+		clock.advanceTo(1000);
+		assertEquals(1000, clock.nanoTime());
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testSleepWithoutDriverFailsFast() throws InterruptedException {
+		new SimulatedClock().sleep(1);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testDriverCannotSleep() throws InterruptedException {
+		SimulatedClock clock = new SimulatedClock();
+		clock.advance(1);
+		clock.sleep(1);
+	}
+
+	@Test(timeout=5000)
+	public void testSleepWaitsForSimulatedTime() throws InterruptedException {
+		final SimulatedClock clock = new SimulatedClock();
+		clock.advance(1);
+		final CountDownLatch woke = new CountDownLatch(1);
+		Thread sleeper = new Thread(() -> {
+			try {
+				clock.sleep(TimeUnit.HOURS.toNanos(1));
+				woke.countDown();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		sleeper.start();
+		assertTrue(!woke.await(50, TimeUnit.MILLISECONDS));
+		clock.advance(TimeUnit.HOURS.toNanos(1));
+		assertTrue(woke.await(1, TimeUnit.SECONDS));
+	}
+
+	@Test(timeout=5000)
+	public void testPidIsReproducible() {
+		assertEquals(runPid(), runPid(), 0.0);
+	}
+
+	/**
+	 * Run a PID for one simulated hour at 1kHz.
+	 */
+	private double runPid() {
+		SimulatedClock clock = new SimulatedClock();
+		Pid pid = new Pid(2, 1, 0.5, clock);
+		pid.setMaxOutput(1.0);
+		pid.setMinOutput(0.0);
+		pid.setPoint(0.5);
+		double sum = 0;
+		for (long i = 0; i < TimeUnit.HOURS.toMillis(1); i++) {
+			clock.advance(TimeUnit.MILLISECONDS.toNanos(1));
+			sum += pid.compute(Math.sin(i / 1000.0));
+		}
+		return sum;
+	}
+}
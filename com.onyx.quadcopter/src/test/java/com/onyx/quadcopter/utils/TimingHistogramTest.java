@@ -0,0 +1,46 @@
+package com.onyx.quadcopter.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TimingHistogramTest {
+
+	@Test
+	public void testEmpty() {
+		TimingHistogram histogram = new TimingHistogram();
+		assertEquals(0, histogram.getPercentile(50));
+		assertEquals(0, histogram.getMean());
+	}
+
+	@Test
+	public void testPercentilesAreBucketUpperBounds() {
+		TimingHistogram histogram = new TimingHistogram();
+		for (int i = 0; i < 90; i++) {
+			histogram.record(100);
+		}
+		for (int i = 0; i < 10; i++) {
+			histogram.record(5000);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(128, histogram.getPercentile(0));
+		assertEquals(128, histogram.getPercentile(50));
+		assertEquals(128, histogram.getPercentile(90));
+		assertEquals(5000, histogram.getPercentile(91));
+		assertEquals(5000, histogram.getPercentile(100));
+		assertEquals(5000, histogram.getPercentile(150));
+		assertEquals(590, histogram.getMean());
+	}
+
+	@Test
+	public void testNegativeAndZeroSamples() {
+		TimingHistogram histogram = new TimingHistogram();
+		histogram.record(-5);
+		histogram.record(0);
+		assertEquals(2, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getPercentile(100));
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+	}
+}